@@ -0,0 +1,315 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mnt.base.das;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Asynchronous facade of the IContext, the jdbc operations run in a dedicated executor and the
+ * result is returned as CompletableFuture, so the caller thread (e.g. netty event loop or packet processor) never blocks on jdbc.
+ *
+ * the executor threads are sized to the db connection pool and the task queue is bounded, while the queue is full
+ * the returned future is completed with RejectedExecutionException immediately (back pressure) instead of blocking the caller.
+ *
+ * the async contexts created with the DBContext share one executor per DBFactory, which is never shut down (the idle 
+ * threads time out), the contexts created with the explicit threads own their executor and must be shut down by shutdown().
+ *
+ * NOTE: the tasks run outside the caller's transaction (TransactionManager is thread bound),
+ * use submit(task) to run the whole transaction in the executor thread.
+ *
+ */
+public class AsyncContext {
+
+	private static final int DEFAULT_QUEUE_FACTOR = 100;
+
+	private static final AtomicInteger executorIdx = new AtomicInteger();
+
+	// the executors shared by the async contexts of the same db factory
+	private static final Map<DBFactory, ThreadPoolExecutor> factoryExecutors = new ConcurrentHashMap<DBFactory, ThreadPoolExecutor>();
+
+	protected IContext context;
+	protected ThreadPoolExecutor executor;
+	private final boolean sharedExecutor;
+
+	public AsyncContext() {
+		this(new DBContext());
+	}
+
+	/**
+	 * run the jdbc operations in the executor shared by the async contexts of the db factory,
+	 * the executor threads are sized to the db connection pool.
+	 *
+	 * @param context
+	 */
+	public AsyncContext(DBContext context) {
+		this.context = context;
+		this.executor = factoryExecutors.computeIfAbsent(context.getDBFactory(), new Function<DBFactory, ThreadPoolExecutor>() {
+			@Override
+			public ThreadPoolExecutor apply(DBFactory factory) {
+				int threads = factory.getMaxPoolSize();
+				return newExecutor(threads, threads * DEFAULT_QUEUE_FACTOR);
+			}
+		});
+		this.sharedExecutor = true;
+	}
+
+	public AsyncContext(IContext context, int threads) {
+		this(context, threads, threads * DEFAULT_QUEUE_FACTOR);
+	}
+
+	/**
+	 * run the jdbc operations in the own executor, invoke shutdown() to stop it.
+	 *
+	 * @param context
+	 * @param threads the executor threads, normally the db connection pool size
+	 * @param queueCapacity the max pending tasks
+	 */
+	public AsyncContext(IContext context, int threads, int queueCapacity) {
+		this.context = context;
+		this.executor = newExecutor(threads, queueCapacity);
+		this.sharedExecutor = false;
+	}
+
+	private static ThreadPoolExecutor newExecutor(int threads, int queueCapacity) {
+		final String namePrefix = "db-async-" + executorIdx.incrementAndGet() + "-";
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity),
+				new ThreadFactory() {
+					private final AtomicInteger threadIdx = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, namePrefix + threadIdx.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				},
+				new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+
+		return executor;
+	}
+
+	/**
+	 * run the task in the jdbc executor, the future completes exceptionally with RejectedExecutionException
+	 * if the executor is saturated.
+	 *
+	 * @param task
+	 * @return
+	 */
+	public <T> CompletableFuture<T> submit(final Callable<T> task) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if(future.isDone()) {
+						// cancelled by the caller
+						return;
+					}
+
+					try {
+						future.complete(task.call());
+					} catch (Throwable e) {
+						future.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+	public CompletableFuture<Boolean> save(final String sql, final List<Object> params) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return context.save(sql, params);
+			}
+		});
+	}
+
+	public <PK> CompletableFuture<PK> saveAndReturnGeneratedKey(final String sql, final List<Object> params) {
+		return submit(new Callable<PK>() {
+			@Override
+			public PK call() throws Exception {
+				return context.<PK>saveAndReturnGeneratedKey(sql, params);
+			}
+		});
+	}
+
+	public CompletableFuture<Integer> update(final String sql, final List<Object> params) {
+		return submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return context.update(sql, params);
+			}
+		});
+	}
+
+	public CompletableFuture<Integer> delete(final String sql, final List<Object> params) {
+		return submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return context.delete(sql, params);
+			}
+		});
+	}
+
+	public CompletableFuture<Boolean> bulkSave(final String sql, final List<List<Object>> params) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return context.bulkSave(sql, params);
+			}
+		});
+	}
+
+	public CompletableFuture<int[]> bulkUpdate(final String sql, final List<List<Object>> params) {
+		return submit(new Callable<int[]>() {
+			@Override
+			public int[] call() throws Exception {
+				return context.bulkUpdate(sql, params);
+			}
+		});
+	}
+
+	public CompletableFuture<List<Map<String, Object>>> query(final String sql, final List<Object> params) {
+		return submit(new Callable<List<Map<String, Object>>>() {
+			@Override
+			public List<Map<String, Object>> call() throws Exception {
+				return context.query(sql, params);
+			}
+		});
+	}
+
+	public CompletableFuture<List<Map<String, Object>>> query(final String sql, final List<Object> params, final List<String> resultKeys) {
+		return submit(new Callable<List<Map<String, Object>>>() {
+			@Override
+			public List<Map<String, Object>> call() throws Exception {
+				return context.query(sql, params, resultKeys);
+			}
+		});
+	}
+
+	public CompletableFuture<CompactResult> queryCompact(final String sql, final List<Object> params) {
+		return submit(new Callable<CompactResult>() {
+			@Override
+			public CompactResult call() throws Exception {
+				return context.queryCompact(sql, params);
+			}
+		});
+	}
+
+	/**
+	 * stream the records to the row handler in the executor thread.
+	 *
+	 * @param sql
+	 * @param params
+	 * @param rowHandler
+	 * @return the handled record count
+	 */
+	public CompletableFuture<Integer> query(final String sql, final List<Object> params, final RowHandler rowHandler) {
+		return submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return context.query(sql, params, rowHandler);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<String, Object>> get(final String sql, final List<Object> params) {
+		return submit(new Callable<Map<String, Object>>() {
+			@Override
+			public Map<String, Object> call() throws Exception {
+				return context.get(sql, params);
+			}
+		});
+	}
+
+	public CompletableFuture<Integer> count(final String sql, final List<Object> params) {
+		return submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return context.count(sql, params);
+			}
+		});
+	}
+
+	public CompletableFuture<Boolean> exists(final String sql, final List<Object> params) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return context.exists(sql, params);
+			}
+		});
+	}
+
+	public CompletableFuture<Boolean> execute(final String sql) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return context.execute(sql);
+			}
+		});
+	}
+
+	/**
+	 * the pending task count in the queue.
+	 *
+	 * @return
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public IContext getContext() {
+		return context;
+	}
+
+	/**
+	 * stop accepting new tasks, the pending tasks still be executed.
+	 * the executor shared by the db factory is not stopped.
+	 */
+	public void shutdown() {
+		if(!sharedExecutor) {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,437 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Map the result set records to the beans of one class without the per row reflection.
+ * 
+ * the writable properties (the non final fields, then the public setters) are resolved once per class as MethodHandles,
+ * the columns of the result set are bound to the properties once per column label list (label equals the property name,
+ * or equals it ignoring the case and the underscores, e.g. user_name -&gt; userName), then each record is read by
+ * column index with the primitive getters straight into the bean, the primitive properties are never boxed.
+ * 
+ * the sql null keeps the default value of the primitive property, and sets null to the others.
+ *
+ */
+class BeanRowMapper<T> {
+	
+	private static final int MAX_BINDINGS = 64;
+	
+	private static final Map<Class<?>, BeanRowMapper<?>> mappers = new ConcurrentHashMap<Class<?>, BeanRowMapper<?>>();
+	
+	private final Class<T> beanClass;
+	private final MethodHandle constructor;
+	private final Map<String, Property> properties = new HashMap<String, Property>();
+	private final Map<String, Property> looseProperties = new HashMap<String, Property>();
+	private final Map<String, ColumnSetter[]> bindings = new ConcurrentHashMap<String, ColumnSetter[]>();
+	
+	@SuppressWarnings("unchecked")
+	static <T> BeanRowMapper<T> getInstance(final Class<T> beanClass) {
+		BeanRowMapper<?> mapper = mappers.get(beanClass);
+		
+		if(mapper == null) {
+			mapper = mappers.computeIfAbsent(beanClass, new Function<Class<?>, BeanRowMapper<?>>() {
+				@Override
+				public BeanRowMapper<?> apply(Class<?> k) {
+					return new BeanRowMapper<T>(beanClass);
+				}
+			});
+		}
+		
+		return (BeanRowMapper<T>) mapper;
+	}
+	
+	private BeanRowMapper(Class<T> beanClass) {
+		this.beanClass = beanClass;
+		
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		
+		try {
+			Constructor<T> ctor = beanClass.getDeclaredConstructor();
+			ctor.setAccessible(true);
+			this.constructor = lookup.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+		} catch (Exception e) {
+			throw new IllegalArgumentException("The bean class requires the no argument constructor: " + beanClass.getName(), e);
+		}
+		
+		for(Class<?> c = beanClass; c != null && c != Object.class; c = c.getSuperclass()) {
+			for(Field field : c.getDeclaredFields()) {
+				int mod = field.getModifiers();
+				if(Modifier.isStatic(mod) || Modifier.isFinal(mod) || properties.containsKey(field.getName())) {
+					continue;
+				}
+				
+				try {
+					field.setAccessible(true);
+					addProperty(field.getName(), field.getType(), lookup.unreflectSetter(field));
+				} catch (Exception e) {
+					// not accessible, try the setter
+				}
+			}
+		}
+		
+		String name;
+		for(Method method : beanClass.getMethods()) {
+			name = method.getName();
+			if(name.length() > 3 && name.startsWith("set") && method.getParameterTypes().length == 1 && !Modifier.isStatic(method.getModifiers())) {
+				name = Character.toLowerCase(name.charAt(3)) + name.substring(4);
+				
+				if(!properties.containsKey(name)) {
+					try {
+						addProperty(name, method.getParameterTypes()[0], lookup.unreflect(method));
+					} catch (IllegalAccessException e) {
+						// skip it
+					}
+				}
+			}
+		}
+	}
+	
+	private void addProperty(String name, Class<?> type, MethodHandle setter) {
+		Property property = new Property(type, setter.asType(MethodType.methodType(void.class, Object.class, type)));
+		properties.put(name, property);
+		
+		String loose = looseName(name);
+		if(!looseProperties.containsKey(loose)) {
+			looseProperties.put(loose, property);
+		}
+	}
+	
+	private static String looseName(String name) {
+		return name.replace("_", "").toLowerCase(Locale.ENGLISH);
+	}
+	
+	/**
+	 * bind the columns of the result set to the properties, the binding is cached by the column labels.
+	 * 
+	 * @param rs
+	 * @return the setter for each column, null for the column without property
+	 * @throws SQLException
+	 */
+	ColumnSetter[] bind(ResultSet rs) throws SQLException {
+		ResultSetMetaData metaData = rs.getMetaData();
+		String[] labels = new String[metaData.getColumnCount()];
+		
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < labels.length; i++) {
+			labels[i] = metaData.getColumnLabel(i + 1);
+			sb.append(labels[i]).append(',');
+		}
+		
+		String bindingKey = sb.toString();
+		ColumnSetter[] setters = bindings.get(bindingKey);
+		
+		if(setters == null) {
+			setters = new ColumnSetter[labels.length];
+			
+			Property property;
+			for(int i = 0; i < labels.length; i++) {
+				property = properties.get(labels[i]);
+				
+				if(property == null) {
+					property = looseProperties.get(looseName(labels[i]));
+				}
+				
+				setters[i] = property == null ? null : newSetter(property.type, property.setter);
+			}
+			
+			// the distinct sql are bounded in practice, guard against the dynamic column lists
+			if(bindings.size() < MAX_BINDINGS) {
+				bindings.put(bindingKey, setters);
+			}
+		}
+		
+		return setters;
+	}
+	
+	/**
+	 * create the bean with the current record of the result set.
+	 * 
+	 * @param rs
+	 * @param setters the binding of the result set
+	 * @return
+	 * @throws SQLException
+	 */
+	@SuppressWarnings("unchecked")
+	T mapRow(ResultSet rs, ColumnSetter[] setters) throws SQLException {
+		Object bean;
+		try {
+			bean = constructor.invokeExact();
+		} catch (Throwable e) {
+			throw new RuntimeException("Error while constructing the bean: " + beanClass.getName(), e);
+		}
+		
+		for(int i = 0; i < setters.length; i++) {
+			if(setters[i] != null) {
+				try {
+					setters[i].set(bean, rs, i + 1);
+				} catch (SQLException e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new RuntimeException("Error while setting the column " + (i + 1) + " to the bean: " + beanClass.getName(), e);
+				}
+			}
+		}
+		
+		return (T) bean;
+	}
+	
+	private static ColumnSetter newSetter(Class<?> type, final MethodHandle mh) {
+		if(type == int.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					int v = rs.getInt(col);
+					if(v != 0 || !rs.wasNull()) {
+						mh.invokeExact(bean, v);
+					}
+				}
+			};
+		} else if(type == long.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					long v = rs.getLong(col);
+					if(v != 0 || !rs.wasNull()) {
+						mh.invokeExact(bean, v);
+					}
+				}
+			};
+		} else if(type == double.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					double v = rs.getDouble(col);
+					if(v != 0 || !rs.wasNull()) {
+						mh.invokeExact(bean, v);
+					}
+				}
+			};
+		} else if(type == float.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					float v = rs.getFloat(col);
+					if(v != 0 || !rs.wasNull()) {
+						mh.invokeExact(bean, v);
+					}
+				}
+			};
+		} else if(type == boolean.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					boolean v = rs.getBoolean(col);
+					if(v || !rs.wasNull()) {
+						mh.invokeExact(bean, v);
+					}
+				}
+			};
+		} else if(type == short.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					short v = rs.getShort(col);
+					if(v != 0 || !rs.wasNull()) {
+						mh.invokeExact(bean, v);
+					}
+				}
+			};
+		} else if(type == byte.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					byte v = rs.getByte(col);
+					if(v != 0 || !rs.wasNull()) {
+						mh.invokeExact(bean, v);
+					}
+				}
+			};
+		} else if(type == Integer.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					int v = rs.getInt(col);
+					mh.invokeExact(bean, v == 0 && rs.wasNull() ? (Integer) null : Integer.valueOf(v));
+				}
+			};
+		} else if(type == Long.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					long v = rs.getLong(col);
+					mh.invokeExact(bean, v == 0 && rs.wasNull() ? (Long) null : Long.valueOf(v));
+				}
+			};
+		} else if(type == Double.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					double v = rs.getDouble(col);
+					mh.invokeExact(bean, v == 0 && rs.wasNull() ? (Double) null : Double.valueOf(v));
+				}
+			};
+		} else if(type == Float.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					float v = rs.getFloat(col);
+					mh.invokeExact(bean, v == 0 && rs.wasNull() ? (Float) null : Float.valueOf(v));
+				}
+			};
+		} else if(type == Boolean.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					boolean v = rs.getBoolean(col);
+					mh.invokeExact(bean, !v && rs.wasNull() ? (Boolean) null : Boolean.valueOf(v));
+				}
+			};
+		} else if(type == Short.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					short v = rs.getShort(col);
+					mh.invokeExact(bean, v == 0 && rs.wasNull() ? (Short) null : Short.valueOf(v));
+				}
+			};
+		} else if(type == Byte.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					byte v = rs.getByte(col);
+					mh.invokeExact(bean, v == 0 && rs.wasNull() ? (Byte) null : Byte.valueOf(v));
+				}
+			};
+		} else if(type == String.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					String v = rs.getString(col);
+					mh.invokeExact(bean, v);
+				}
+			};
+		} else if(type == BigDecimal.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					BigDecimal v = rs.getBigDecimal(col);
+					mh.invokeExact(bean, v);
+				}
+			};
+		} else if(type == java.util.Date.class || type == java.sql.Timestamp.class) {
+			final MethodHandle tsh = mh.asType(MethodType.methodType(void.class, Object.class, java.sql.Timestamp.class));
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					java.sql.Timestamp v = rs.getTimestamp(col);
+					tsh.invokeExact(bean, v);
+				}
+			};
+		} else if(type == java.sql.Date.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					java.sql.Date v = rs.getDate(col);
+					mh.invokeExact(bean, v);
+				}
+			};
+		} else if(type == java.sql.Time.class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					java.sql.Time v = rs.getTime(col);
+					mh.invokeExact(bean, v);
+				}
+			};
+		} else if(type == byte[].class) {
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					byte[] v = rs.getBytes(col);
+					mh.invokeExact(bean, v);
+				}
+			};
+		} else if(type.isEnum()) {
+			final Class<?> enumType = type;
+			final MethodHandle oh = mh.asType(MethodType.methodType(void.class, Object.class, Object.class));
+			return new ColumnSetter() {
+				@Override
+				public void set(Object bean, ResultSet rs, int col) throws Throwable {
+					String v = rs.getString(col);
+					oh.invokeExact(bean, v == null ? null : enumValue(enumType, v));
+				}
+			};
+		}
+		
+		final Class<?> targetType = type;
+		final MethodHandle oh = mh.asType(MethodType.methodType(void.class, Object.class, Object.class));
+		return new ColumnSetter() {
+			@Override
+			public void set(Object bean, ResultSet rs, int col) throws Throwable {
+				Object v = rs.getObject(col);
+				// the incompatible value is skipped, as MapBeanUtil does
+				if(v == null || targetType.isInstance(v)) {
+					oh.invokeExact(bean, v);
+				}
+			}
+		};
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object enumValue(Class enumType, String name) {
+		return Enum.valueOf(enumType, name);
+	}
+	
+	private static class Property {
+		final Class<?> type;
+		final MethodHandle setter;
+		
+		Property(Class<?> type, MethodHandle setter) {
+			this.type = type;
+			this.setter = setter;
+		}
+	}
+	
+	/**
+	 * read one column of the current record into the bean.
+	 */
+	interface ColumnSetter {
+		void set(Object bean, ResultSet rs, int col) throws Throwable;
+	}
+}
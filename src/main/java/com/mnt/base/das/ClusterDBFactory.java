@@ -6,17 +6,26 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,56 +55,101 @@ public abstract class ClusterDBFactory extends DBFactory {
 	protected static final String CLUSTER_DB_USER       = "cluster.jdbc.username";
 	protected static final String CLUSTER_DB_PASSWORD   = "cluster.jdbc.password";
 	protected static final String CLUSTER_DB_POOL_SIZE  = "cluster.jdbc.maxPoolSize";
+	protected static final String CLUSTER_DB_NODE_SELECTOR  = "cluster.jdbc.nodeSelector";
+	protected static final String CLUSTER_DB_READ_WRITE_SPLIT  = "cluster.jdbc.readWriteSplit";
+	protected static final String CLUSTER_DB_STICKY_PRIMARY_WINDOW  = "cluster.jdbc.stickyPrimaryWindow";
+	protected static final String CLUSTER_DB_MAX_REPLICA_LAG  = "cluster.jdbc.maxReplicaLag";
+	protected static final String CLUSTER_DB_LAG_CHECK_PERIOD  = "cluster.jdbc.lagCheckPeriod";
+	protected static final String CLUSTER_DB_LAG_QUERY  = "cluster.jdbc.lagQuery";
+	protected static final String CLUSTER_DB_FAIL_FAST  = "cluster.jdbc.failFast";
+	protected static final String CLUSTER_DB_NODE_WAIT_TIMEOUT  = "cluster.jdbc.nodeWaitTimeout";
+	protected static final String CLUSTER_DB_BREAKER_FAILURE_THRESHOLD  = "cluster.jdbc.breakerFailureThreshold";
+	protected static final String CLUSTER_DB_BREAKER_OPEN_TIMEOUT  = "cluster.jdbc.breakerOpenTimeout";
+	protected static final String CLUSTER_DB_PROBE_PERIOD  = "cluster.jdbc.probePeriod";
+	protected static final String CLUSTER_DB_PROBE_TIMEOUT  = "cluster.jdbc.probeTimeout";
+	protected static final String CLUSTER_DB_METRICS  = "cluster.jdbc.metrics";
+	protected static final String CLUSTER_DB_METRICS_JMX  = "cluster.jdbc.metricsJmx";
+	protected static final String CLUSTER_DB_SLOW_QUERY_THRESHOLD  = "cluster.jdbc.slowQueryThreshold";
+	protected static final String CLUSTER_DB_QUERY_CACHE_SIZE  = "cluster.jdbc.queryCacheSize";
+	protected static final String CLUSTER_DB_QUERY_CACHE_TTL  = "cluster.jdbc.queryCacheTtl";
+	protected static final String CLUSTER_DB_QUERY_CACHE_TABLES  = "cluster.jdbc.queryCacheTables";
+	protected static final String CLUSTER_DB_BULK_INSERT_REWRITE  = "cluster.jdbc.bulkInsertRewrite";
+	protected static final String CLUSTER_DB_BULK_INSERT_CHUNK_SIZE  = "cluster.jdbc.bulkInsertChunkSize";
+	protected static final String CLUSTER_DB_MAX_STATEMENT_PARAMS  = "cluster.jdbc.maxStatementParams";
 	
-	private class NodeDBFactory {
+	protected static final String DB_ROLE  = "jdbc.role";
+	protected static final String DB_LAG_QUERY  = "jdbc.lagQuery";
+	protected static final String DB_LAG_COLUMN  = "jdbc.lagColumn";
+	
+	protected static final String ROLE_PRIMARY  = "primary";
+	
+	private class NodeDBFactory extends ClusterNodeStats {
 		
-		String nodeName = ""; 
 		Properties prop = new Properties();
 		
-		int maxPoolSize = 10;
+		ConnectionPool connPool;
 		
-		BlockingQueue<Connection> connPool = new LinkedBlockingQueue<Connection>();
-		BlockingQueue<Connection> usingConnPool = new LinkedBlockingQueue<Connection>();
+		int idx;
+		boolean primary;
 		
-		Object connCreationLock = new Object();
+		volatile boolean lagging;
+		volatile double replicaLag;
 		
-		long nextCheckTs = 0;
+		volatile DBContext nodeContext;
 		
-		boolean available() {
-			return System.currentTimeMillis() > nextCheckTs;
-		}
+		// the acquire time of the lent connections, keyed by the connection as one thread may hold several
+		final Map<Connection, Long> acquireTs = new ConcurrentHashMap<Connection, Long>();
 		
-		long waitTimestamp() {
-			return System.currentTimeMillis() - nextCheckTs;
-		}
-		
-		void setToWait() {
-			nextCheckTs = System.currentTimeMillis() + TimeUtil.MINUTES_1;
+		@Override
+		public boolean available() {
+			return super.available() && !lagging;
 		}
 		
 		void setConf(String confName, Object confValue) {
-			
-			if("maxPoolSize".equals(confName)) {
-				this.maxPoolSize = CommonUtil.parseAsInt(confValue, this.maxPoolSize);
+			if("weight".equals(confName)) {
+				this.weight = Math.max(1, CommonUtil.parseAsInt(confValue, this.weight));
 			}
 			
-			prop.put(new StringBuilder("jdbc.").append(confName), confValue);
+			if(confValue != null) {
+				prop.put("jdbc." + confName, String.valueOf(confValue));
+			}
 		}
 
 		@Override
 		public String toString() {
-			return "NodeDBFactory [nodeName=" + nodeName + ", prop=" + prop
-					+ ", maxPoolSize=" + maxPoolSize + ", connPool=" + connPool
-					+ ", usingConnPool=" + usingConnPool
-					+ ", connCreationLock=" + connCreationLock + "]";
+			return "NodeDBFactory [nodeName=" + nodeName + ", url=" + prop.getProperty(DB_URL)
+					+ ", primary=" + primary + ", replicaLag=" + replicaLag + ", breakerState=" + getBreakerState()
+					+ ", weight=" + weight + ", outstanding=" + getOutstanding() + ", ewmaLatency=" + getEwmaLatency()
+					+ ", connPool=" + connPool + "]";
 		}
 	}
 	
 	private Map<String, NodeDBFactory> clusterNodes = new HashMap<String, NodeDBFactory>();
 	private List<NodeDBFactory> nodeDBFactorys = new ArrayList<NodeDBFactory>();
-	private AtomicLong loopIdx = new AtomicLong();
+	private NodeSelector nodeSelector;
+	
+	private boolean readWriteSplit;
+	private List<NodeDBFactory> primaryNodes = new ArrayList<NodeDBFactory>();
+	private List<NodeDBFactory> replicaNodes = new ArrayList<NodeDBFactory>();
+	private NodeSelector readNodeSelector;
+	private long stickyPrimaryWindow;
+	private double maxReplicaLag;
+	private static ThreadLocal<long[]> lastWriteTsHolder = new ThreadLocal<long[]>();
+	
+	private boolean failFast;
+	private long nodeWaitTimeout;
+	private int breakerFailureThreshold;
+	private long breakerOpenTimeout;
+	// seconds
+	private int probeTimeout;
+	
+	// the probes and lag checks may block on the unreachable node, kept off the shared pool housekeeper
+	private ScheduledExecutorService nodeChecker;
+	// the probe connection attempts not finished yet, at most one per node
+	private final Map<String, Future<Boolean>> pendingProbes = new ConcurrentHashMap<String, Future<Boolean>>();
+	private final ReentrantLock nodeLock = new ReentrantLock();
+	private final Condition nodeAvailable = nodeLock.newCondition();
 	
-	private static ThreadLocal<TransactionOwner> toHolder = new ThreadLocal<TransactionOwner>();
 	private static ThreadLocal<Integer> nodeRetrieveIdx = new ThreadLocal<Integer>();
 	
 	protected ClusterDBFactory(String dbConf){
@@ -168,12 +222,35 @@ public abstract class ClusterDBFactory extends DBFactory {
 		// remove the cluster keys
 		clusterProp.remove(CLUSTER_DB_DRIVER);
 		clusterProp.remove(CLUSTER_DB_DRIVERS);
-		clusterProp.remove(CLUSTER_DB_POOL_SIZE);
+		String selectorName = (String)clusterProp.remove(CLUSTER_DB_NODE_SELECTOR);
+		nodeSelector = NodeSelector.getInstance(selectorName);
+		readNodeSelector = NodeSelector.getInstance(selectorName);
+		readWriteSplit = CommonUtil.parseAsBoolean(clusterProp.remove(CLUSTER_DB_READ_WRITE_SPLIT), false);
+		stickyPrimaryWindow = CommonUtil.parseAsLong(clusterProp.remove(CLUSTER_DB_STICKY_PRIMARY_WINDOW), TimeUtil.SEC_1);
+		maxReplicaLag = CommonUtil.parseAsDouble(clusterProp.remove(CLUSTER_DB_MAX_REPLICA_LAG), -1);
+		long lagCheckPeriod = CommonUtil.parseAsLong(clusterProp.remove(CLUSTER_DB_LAG_CHECK_PERIOD), TimeUtil.SEC_1 * 5);
+		String lagQuery = (String)clusterProp.remove(CLUSTER_DB_LAG_QUERY);
+		failFast = CommonUtil.parseAsBoolean(clusterProp.remove(CLUSTER_DB_FAIL_FAST), false);
+		nodeWaitTimeout = CommonUtil.parseAsLong(clusterProp.remove(CLUSTER_DB_NODE_WAIT_TIMEOUT), 0);
+		breakerFailureThreshold = Math.max(1, CommonUtil.parseAsInt(clusterProp.remove(CLUSTER_DB_BREAKER_FAILURE_THRESHOLD), 1));
+		breakerOpenTimeout = CommonUtil.parseAsLong(clusterProp.remove(CLUSTER_DB_BREAKER_OPEN_TIMEOUT), TimeUtil.SEC_1 * 10);
+		long probePeriod = CommonUtil.parseAsLong(clusterProp.remove(CLUSTER_DB_PROBE_PERIOD), TimeUtil.SEC_1);
+		probeTimeout = Math.max(1, CommonUtil.parseAsInt(clusterProp.remove(CLUSTER_DB_PROBE_TIMEOUT), 5));
 		String jdbcUrl = (String)clusterProp.remove(CLUSTER_DB_URL);
 		String jdbcUser = (String)clusterProp.remove(CLUSTER_DB_USER);
 		String jdbcPassword = (String)clusterProp.remove(CLUSTER_DB_PASSWORD);
 		int maxPoolSize = CommonUtil.parseAsInt(clusterProp.remove(CLUSTER_DB_POOL_SIZE), 10);
 		
+		initMetrics((String)clusterProp.remove(CLUSTER_DB_METRICS), 
+				CommonUtil.parseAsBoolean(clusterProp.remove(CLUSTER_DB_METRICS_JMX), false), 
+				CommonUtil.parseAsLong(clusterProp.remove(CLUSTER_DB_SLOW_QUERY_THRESHOLD), -1));
+		initQueryCache(CommonUtil.parseAsInt(clusterProp.remove(CLUSTER_DB_QUERY_CACHE_SIZE), 0), 
+				CommonUtil.parseAsLong(clusterProp.remove(CLUSTER_DB_QUERY_CACHE_TTL), TimeUtil.MINUTES_1), 
+				(String)clusterProp.remove(CLUSTER_DB_QUERY_CACHE_TABLES));
+		bulkInsertRewrite = CommonUtil.parseAsBoolean(clusterProp.remove(CLUSTER_DB_BULK_INSERT_REWRITE), false);
+		bulkInsertChunkSize = CommonUtil.parseAsInt(clusterProp.remove(CLUSTER_DB_BULK_INSERT_CHUNK_SIZE), bulkInsertChunkSize);
+		maxStatementParams = CommonUtil.parseAsInt(clusterProp.remove(CLUSTER_DB_MAX_STATEMENT_PARAMS), 0);
+		
 		NodeDBFactory node;
 		
 		String key;
@@ -192,7 +269,7 @@ public abstract class ClusterDBFactory extends DBFactory {
 				if(node == null) {
 					node = new NodeDBFactory();
 					node.setConf("url", jdbcUrl);
-					node.setConf("user", jdbcUser);
+					node.setConf("username", jdbcUser);
 					node.setConf("password", jdbcPassword);
 					node.setConf("maxPoolSize", maxPoolSize);
 					
@@ -207,164 +284,465 @@ public abstract class ClusterDBFactory extends DBFactory {
 				log.warn("ignore the invalid conf for cluster db: " + key);
 			}
 		}
+		
+		for(int i = 0; i < nodeDBFactorys.size(); i++) {
+			NodeDBFactory n = nodeDBFactorys.get(i);
+			n.idx = i;
+			n.connPool = newConnectionPool(n.nodeName, n.prop);
+			startHousekeeping(n.connPool, n.prop);
+		}
+		
+		if(readWriteSplit) {
+			setupReadWriteSplit(lagQuery, lagCheckPeriod);
+		}
+		
+		if(probePeriod > 0) {
+			scheduleNodeCheck(new Runnable() {
+				@Override
+				public void run() {
+					probeNodes();
+				}
+			}, probePeriod);
+		}
+	}
+	
+	/**
+	 * run the probe or lag check periodically in the node checker threads of the factory.
+	 * 
+	 * @param task
+	 * @param period milliseconds
+	 */
+	private void scheduleNodeCheck(Runnable task, long period) {
+		if(nodeChecker == null) {
+			// invoked while initializing only, one thread per node for the hung probe connection attempts
+			nodeChecker = Executors.newScheduledThreadPool(nodeDBFactorys.size() + 2, new ThreadFactory() {
+				private final AtomicInteger threadIdx = new AtomicInteger();
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "db-cluster-node-checker-" + threadIdx.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		
+		nodeChecker.scheduleWithFixedDelay(task, 0, period, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * probe the opened nodes whose open timeout elapsed, run in the node checker thread.
+	 */
+	private void probeNodes() {
+		for(NodeDBFactory n : nodeDBFactorys) {
+			if(n.tryHalfOpen()) {
+				if(probeNode(n.nodeName, n.prop)) {
+					log.info("Cluster db node " + n.nodeName + " is recovered, close the circuit breaker.");
+					n.closeBreaker();
+					signalNodeAvailable();
+				} else {
+					n.reopenBreaker(breakerOpenTimeout);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * try one physical connection to the node without touching the node pool, wait for it at most probeTimeout seconds.
+	 * 
+	 * @param nodeName
+	 * @param nodeProp
+	 * @return true if the node accepts the connection
+	 */
+	protected boolean probeNode(final String nodeName, final Properties nodeProp) {
+		Future<Boolean> probe = pendingProbes.get(nodeName);
+		
+		if(probe != null && !probe.isDone()) {
+			// the previous connection attempt still hangs, do not pile up the checker threads
+			return false;
+		}
+		
+		probe = nodeChecker.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return connectNode(nodeName, nodeProp);
+			}
+		});
+		pendingProbes.put(nodeName, probe);
+		
+		try {
+			return probe.get(probeTimeout, TimeUnit.SECONDS);
+		} catch (TimeoutException e) {
+			// the connection, if established later, is closed by the probe itself
+			probe.cancel(true);
+			log.debug("Probe of the cluster db node " + nodeName + " timed out after " + probeTimeout + " seconds.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			log.debug("Probe of the cluster db node " + nodeName + " failed: " + e.getCause());
+		}
+		
+		return false;
+	}
+	
+	private boolean connectNode(String nodeName, Properties nodeProp) {
+		Connection conn = null;
+		try {
+			conn = DriverManager.getConnection(nodeProp.getProperty(DB_URL), 
+											   nodeProp.getProperty(DB_USER), 
+											   nodeProp.getProperty(DB_PASSWORD));
+			return conn.isValid(Math.min(probeTimeout, CommonUtil.parseAsInt(nodeProp.getProperty(DB_VALIDATION_TIMEOUT), 5)));
+		} catch (Throwable e) {
+			log.debug("Probe of the cluster db node " + nodeName + " failed: " + e.getMessage());
+			return false;
+		} finally {
+			if(conn != null) {
+				try {
+					conn.close();
+				} catch (SQLException e) {
+					// ignore
+				}
+			}
+		}
+	}
+	
+	private void signalNodeAvailable() {
+		nodeLock.lock();
+		try {
+			nodeAvailable.signalAll();
+		} finally {
+			nodeLock.unlock();
+		}
+	}
+	
+	private void setupReadWriteSplit(String lagQuery, long lagCheckPeriod) {
+		
+		for(NodeDBFactory n : nodeDBFactorys) {
+			n.primary = ROLE_PRIMARY.equalsIgnoreCase(n.prop.getProperty(DB_ROLE));
+			
+			if(n.primary) {
+				primaryNodes.add(n);
+			} else {
+				replicaNodes.add(n);
+			}
+		}
+		
+		if(primaryNodes.isEmpty()) {
+			log.warn("No primary node (cluster.<node>.jdbc.role=primary) configured, skip the read write split.");
+			readWriteSplit = false;
+			return;
+		}
+		
+		if(replicaNodes.isEmpty()) {
+			log.warn("No replica node configured (all nodes are primary), skip the read write split.");
+			readWriteSplit = false;
+			return;
+		}
+		
+		if(maxReplicaLag >= 0 && lagCheckPeriod > 0) {
+			for(final NodeDBFactory n : replicaNodes) {
+				final String nodeLagQuery = n.prop.getProperty(DB_LAG_QUERY, lagQuery);
+				
+				if(CommonUtil.isEmpty(nodeLagQuery)) {
+					log.warn("No lag query configured for the replica node: " + n.nodeName + ", skip the lag checking.");
+					continue;
+				}
+				
+				scheduleNodeCheck(new Runnable() {
+					@Override
+					public void run() {
+						checkReplicaLag(n, nodeLagQuery);
+					}
+				}, lagCheckPeriod);
+			}
+		}
+	}
+	
+	/**
+	 * run the lag query on the replica node, mark the node as lagging (skip it for read) if the lag exceeds maxReplicaLag seconds.
+	 * 
+	 * @param node
+	 * @param lagQuery
+	 */
+	private void checkReplicaLag(NodeDBFactory node, String lagQuery) {
+		ConnectionPool pool = node.connPool;
+		
+		// do not block the node checker thread while the node pool is exhausted
+		if(pool.getIdleCount() == 0 && pool.getActiveCount() >= pool.getMaxPoolSize()) {
+			return;
+		}
+		
+		Connection conn = null;
+		Statement stmt = null;
+		ResultSet rs = null;
+		
+		try {
+			conn = pool.borrowConnection();
+			stmt = conn.createStatement();
+			stmt.setQueryTimeout(probeTimeout);
+			rs = stmt.executeQuery(lagQuery);
+			
+			Object lag = null;
+			if(rs.next()) {
+				String lagColumn = node.prop.getProperty(DB_LAG_COLUMN);
+				lag = lagColumn == null ? rs.getObject(1) : rs.getObject(lagColumn);
+			}
+			
+			// null lag means the replication is stopped
+			node.replicaLag = lag == null ? Double.MAX_VALUE : CommonUtil.parseAsDouble(String.valueOf(lag), Double.MAX_VALUE);
+		} catch (Throwable e) {
+			log.warn("Error while checking the replica lag of node: " + node.nodeName, e);
+			node.replicaLag = Double.MAX_VALUE;
+		} finally {
+			close(rs);
+			close(stmt);
+			
+			if(conn != null) {
+				pool.returnConnection(conn);
+			}
+		}
+		
+		boolean lagging = node.replicaLag > maxReplicaLag;
+		if(lagging != node.lagging) {
+			log.warn("Replica node " + node.nodeName + (lagging ? " is lagging: " : " catches up: ") + node.replicaLag);
+			node.lagging = lagging;
+		}
 	}
 
 	public Connection getConnection(){
 		
-		Connection conn;
-		
-		TransactionOwner to = toHolder.get();
+		Connection conn = getTransactionConnection();
 		
-		if(to != null) {
-			conn = to.connection;
-		} else {
+		if(conn == null) {
 			conn = retrieveConnection();
 		}
 		
 		return conn;
 	}
 	
-	private int getCurrentIdx() {
-		Integer idx = nodeRetrieveIdx.get();
-		if(idx == null) {
-			idx = (int)(loopIdx.getAndIncrement() % nodeDBFactorys.size());
-			nodeRetrieveIdx.set(idx);
+	@Override
+	public Connection getReadConnection() {
+		
+		Connection conn = getTransactionConnection();
+		
+		if(conn != null) {
+			return conn;
+		}
+		
+		if(readWriteSplit && !isStickyPrimary()) {
+			int idx = readNodeSelector.select(replicaNodes);
+			
+			if(idx >= 0) {
+				return retrieveConnection(replicaNodes.get(idx), false);
+			}
+			
+			// no replica available, read from the primary
 		}
 		
-		return idx;
+		return retrieveConnection();
+	}
+	
+	/**
+	 * read from the primary node within the sticky primary window after writing in the current thread.
+	 * 
+	 * @return
+	 */
+	private boolean isStickyPrimary() {
+		long[] lastWriteTs = lastWriteTsHolder.get();
+		return lastWriteTs != null && System.currentTimeMillis() - lastWriteTs[0] < stickyPrimaryWindow;
+	}
+	
+	private void markWrite() {
+		long[] lastWriteTs = lastWriteTsHolder.get();
+		if(lastWriteTs == null) {
+			lastWriteTs = new long[1];
+			lastWriteTsHolder.set(lastWriteTs);
+		}
+		lastWriteTs[0] = System.currentTimeMillis();
+	}
+	
+	/**
+	 * clear the sticky primary mark of the current thread, e.g. at the end of the request.
+	 */
+	public void clearWriteMark() {
+		lastWriteTsHolder.remove();
 	}
 	
-	private NodeDBFactory getCurrentFactory(boolean changeable) {
-		int curIdx = getCurrentIdx();
+	/**
+	 * select the node by the node selector.
+	 * 
+	 * if no node available, fail immediately with failFast, otherwise wait (at most nodeWaitTimeout milliseconds, 0 means no limit)
+	 * until the background probe closes the breaker of any node.
+	 * 
+	 * @return
+	 */
+	private NodeDBFactory selectNode() {
+		int idx;
+		
+		List<NodeDBFactory> nodes = readWriteSplit ? primaryNodes : nodeDBFactorys;
+		
+		if((idx = nodeSelector.select(nodes)) >= 0) {
+			return nodes.get(idx);
+		}
 		
-		NodeDBFactory node;
+		if(failFast) {
+			throw new RuntimeException("No available cluster db node, all nodes are unavailable: " + nodes);
+		}
 		
-		if(changeable) {
-			int nIdx = curIdx;
-			do {
-				node = nodeDBFactorys.get(nIdx);
-				
-				if(node.available()) {
-					nodeRetrieveIdx.set(nIdx);
-					break;
-				} else {
-					nIdx = (nIdx + 1) % nodeDBFactorys.size();
-					if(nIdx == curIdx) { // get tried the full loop
-						long waitTs = node.waitTimestamp();
-						if(waitTs > 0) {
-							try {
-								Thread.sleep(waitTs);
-							} catch (InterruptedException e) {
-								throw new RuntimeException("thread break.", e);
-							}
-						}
-					}
+		long deadline = nodeWaitTimeout > 0 ? System.currentTimeMillis() + nodeWaitTimeout : Long.MAX_VALUE;
+		
+		nodeLock.lock();
+		try {
+			while((idx = nodeSelector.select(nodes)) < 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0) {
+					throw new RuntimeException("No available cluster db node within " + nodeWaitTimeout + " ms: " + nodes);
 				}
-			} while(true);
-		} else {
-			node = nodeDBFactorys.get(curIdx);
+				
+				// re-check periodically, the replica lag flag changes without signal
+				nodeAvailable.await(Math.min(remaining, TimeUtil.SEC_1), TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("thread break.", e);
+		} finally {
+			nodeLock.unlock();
 		}
 		
-		return node;
+		return nodes.get(idx);
 	}
 	
-	private void resetCurrentIdx() {
-		nodeRetrieveIdx.set(null);
+	private NodeDBFactory getCurrentFactory() {
+		Integer idx = nodeRetrieveIdx.get();
+		return idx == null ? null : nodeDBFactorys.get(idx);
 	}
 	
 	private Connection retrieveConnection() {
 		
-		Connection connection = null;
+		if(readWriteSplit) {
+			markWrite();
+		}
+		
+		return retrieveConnection(selectNode(), true);
+	}
+	
+	private Connection retrieveConnection(NodeDBFactory node, boolean write) {
 		
-		NodeDBFactory node = getCurrentFactory(false);
+		nodeRetrieveIdx.set(node.idx);
 		
-		while(node.connPool.size() > 0 || node.usingConnPool.size() >= node.maxPoolSize) {
-			connection = node.connPool.poll();
-			
-			if(connection != null) {
-				try {
-					if(connection.isValid(0)){
-						
-						node.usingConnPool.add(connection);
-						
-						return connection;
-					}
-				} catch (SQLException e) {
-					try {
-						connection.close();
-					} catch (SQLException e1) {
-						// ignore
-					}
-				}
-			} else {
-				Iterator<Connection> conns = node.usingConnPool.iterator();
-				Connection conn;
-				while(conns.hasNext()) {
-					conn = conns.next();
-					
-					try {
-						if(conn.isClosed()){
-							node.usingConnPool.remove(conn);
-						}
-					} catch (SQLException e) {
-						
-						try{
-							conn.close();
-						}catch(SQLException e1){
-							// skip it
-						}
-						
-						node.usingConnPool.remove(conn);
-					}
-						
-					if(node.usingConnPool.size() < node.maxPoolSize){
-						break;
-					}
-				}
-				
-				if(node.usingConnPool.size() >= node.maxPoolSize) {
-					synchronized (node.connPool) {
-						try {
-							node.connPool.wait(1000);
-						} catch (InterruptedException e) {
-							log.error("error while wait for the connection.", e);
-						}
-					}
+		long startTs = System.nanoTime();
+		
+		Connection conn;
+		try {
+			conn = node.connPool.borrowConnection();
+		} catch (RuntimeException e) {
+			if(e.getCause() instanceof SQLException) {
+				log.error("Error when construct the db connection with node: " + node, e);
+				if(node.recordFailure(breakerFailureThreshold, breakerOpenTimeout)) {
+					log.warn("Open the circuit breaker of cluster db node: " + node.nodeName);
 				}
+				return write ? retrieveConnection() : getReadConnection();
 			}
+			
+			throw e;
 		}
 		
-		synchronized (node.connCreationLock) {
-			if(node.usingConnPool.size() < node.maxPoolSize){
-				try {
-					connection = DriverManager.getConnection(node.prop.getProperty(DB_URL), 
-															 node.prop.getProperty(DB_USER), 
-															 node.prop.getProperty(DB_PASSWORD));
-					
-					node.usingConnPool.add(connection);
-				} catch (SQLException e) {
-					log.error("Error when construct the db connection with node: " + node, e);
-					//throw new RuntimeException("Error when construct the db connection.", e);
-					node.setToWait();
-					resetCurrentIdx();
-					return retrieveConnection();
-				}
-			}
+		recordAcquire(node, conn, startTs);
+		
+		return conn;
+	}
+	
+	private void recordAcquire(NodeDBFactory node, Connection conn, long startTs) {
+		node.recordSuccess();
+		node.recordAcquire();
+		node.acquireTs.put(conn, startTs);
+	}
+	
+	private boolean returnConnection(NodeDBFactory node, Connection conn) {
+		Long startTs = node.acquireTs.remove(conn);
+		
+		if(node.connPool.returnConnection(conn)) {
+			node.recordRelease(startTs == null ? -1 : System.nanoTime() - startTs);
+			return true;
 		}
 		
-		if(connection == null) {
-			synchronized (node.connPool) {
-				try {
-					node.connPool.wait(1000);
-				} catch (InterruptedException e) {
-					log.error("error while wait for the connection.", e);
-				}
+		if(startTs != null) {
+			// lent by the node but reclaimed by the pool, still release the outstanding count
+			node.recordRelease(-1);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * the configured node names in order.
+	 * 
+	 * @return
+	 */
+	public List<String> getNodeNames() {
+		List<String> names = new ArrayList<String>(nodeDBFactorys.size());
+		for(NodeDBFactory n : nodeDBFactorys) {
+			names.add(n.nodeName);
+		}
+		
+		return names;
+	}
+	
+	/**
+	 * the context executing the statements on the specified node only (e.g. for the sharded nodes, see ScatterGather), 
+	 * the node in the open circuit breaker fails immediately, the query cache is not applied.
+	 * 
+	 * @param nodeName
+	 * @return
+	 */
+	public DBContext getNodeContext(String nodeName) {
+		NodeDBFactory node = clusterNodes.get(nodeName);
+		
+		if(node == null) {
+			throw new IllegalArgumentException("No such cluster db node: " + nodeName);
+		}
+		
+		DBContext context = node.nodeContext;
+		if(context == null) {
+			context = new DBContext(new NodeBoundFactory(node));
+			node.nodeContext = context;
+		}
+		
+		return context;
+	}
+	
+	/**
+	 * the statistics of the cluster nodes.
+	 * 
+	 * @return
+	 */
+	public List<ClusterNodeStats> getNodeStats() {
+		return new ArrayList<ClusterNodeStats>(nodeDBFactorys);
+	}
+	
+	@Override
+	public int getMaxPoolSize() {
+		int maxPoolSize = 0;
+		
+		for(NodeDBFactory n : nodeDBFactorys) {
+			maxPoolSize += n.connPool.getMaxPoolSize();
+		}
+		
+		return maxPoolSize > 0 ? maxPoolSize : super.getMaxPoolSize();
+	}
+	
+	@Override
+	public PreparedStatement prepareStatement(Connection conn, String sql, int autoGeneratedKeys) throws SQLException {
+		PreparedStatement ps = null;
+		
+		for(NodeDBFactory n : nodeDBFactorys) {
+			ps = n.connPool.prepareStatement(conn, sql, autoGeneratedKeys);
+			if(ps != null) {
+				return ps;
 			}
-			
-			return getConnection();
 		}
-			
-		return connection;
+		
+		return autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? conn.prepareStatement(sql, autoGeneratedKeys) : conn.prepareStatement(sql);
 	}
 	
 	public void close(Object o){
@@ -372,20 +750,39 @@ public abstract class ClusterDBFactory extends DBFactory {
 			
 			if(o instanceof Connection){
 				
-				TransactionOwner to = toHolder.get();
-				if(to != null && !to.closeable()) {
+				if(o == getTransactionConnection()) {
+					// closed while the transaction ends
 					return ;
 				}
 				
-				NodeDBFactory node = getCurrentFactory(true);
+				NodeDBFactory node = getCurrentFactory();
 				
-				synchronized (node.connPool) {
-					node.connPool.add((Connection)o);
-					node.usingConnPool.remove(o);
+				if(node == null || !returnConnection(node, (Connection)o)) {
+					// the thread may be switched to other node after retrieving the connection
+					boolean returned = false;
+					for(NodeDBFactory n : nodeDBFactorys) {
+						if(n != node && returnConnection(n, (Connection)o)) {
+							returned = true;
+							break;
+						}
+					}
 					
-					node.connPool.notify();
+					if(!returned) {
+						log.warn("Close the connection which is not retrieved from the cluster pool: " + o);
+						try {
+							((Connection) o).close();
+						} catch (SQLException e) {
+							log.error("Error while closing the connection resource.", e);
+						}
+					}
 				}
 			}else if(o instanceof PreparedStatement){
+				for(NodeDBFactory n : nodeDBFactorys) {
+					if(n.connPool.releaseStatement((PreparedStatement) o)) {
+						return ;
+					}
+				}
+				
 				try {
 					((PreparedStatement) o).close();
 				} catch (SQLException e) {
@@ -413,115 +810,73 @@ public abstract class ClusterDBFactory extends DBFactory {
 		}
 	}
 
-	public void beginTransaction() {
-		
-		
-		TransactionOwner to = toHolder.get();
+	@Override
+	protected Connection retrieveTransactionConnection() {
+		return retrieveConnection();
+	}
+	
+	/**
+	 * the factory view of one node, retrieves the connections from the node pool directly.
+	 */
+	private class NodeBoundFactory extends DBFactory {
+		
+		private final NodeDBFactory node;
+		
+		NodeBoundFactory(NodeDBFactory node) {
+			super(null);
+			this.node = node;
+			this.connPool = node.connPool;
+			this.prop = ClusterDBFactory.this.prop;
+			this.metricsSink = ClusterDBFactory.this.metricsSink;
+			this.slowQueryThreshold = ClusterDBFactory.this.slowQueryThreshold;
+			this.bulkInsertRewrite = ClusterDBFactory.this.bulkInsertRewrite;
+			this.bulkInsertChunkSize = ClusterDBFactory.this.bulkInsertChunkSize;
+			this.maxStatementParams = ClusterDBFactory.this.maxStatementParams;
+		}
 		
-		if(to == null) {
-			Connection conn = retrieveConnection();
-			try {
-				conn.setAutoCommit(false);
-			} catch (SQLException e) {
-				log.error("fail to set connection auto commit as false.", e);
-				throw new RuntimeException("Begin transaction error: fail to set connection auto commit as false.", e);
+		@Override
+		public Connection getConnection() {
+			if(!isTransactional() && node.getBreakerState() != ClusterNodeStats.BreakerState.CLOSED) {
+				throw new RuntimeException("The cluster db node is unavailable: " + node.nodeName);
 			}
 			
-			to = new TransactionOwner(conn);
+			Connection conn = getTransactionConnection();
 			
-			toHolder.set(to);
-		} else {
-			to.increaseDeep();
+			return conn != null ? conn : retrieveNodeConnection();
 		}
-	}
-
-	public void endTransaction() {
 		
-		TransactionOwner to = toHolder.get();
+		@Override
+		protected Connection retrieveTransactionConnection() {
+			return retrieveNodeConnection();
+		}
 		
-		if(to.decressDeep()) {
-			Connection conn = to.connection;
+		// the node load and latency stay visible to the node selectors during the scatter gather
+		private Connection retrieveNodeConnection() {
+			long startTs = System.nanoTime();
 			
+			Connection conn;
 			try {
-				conn.commit();
-			} catch (SQLException e) {
-				log.error("Fail to commit the transaction, auto rollback.", e);
-				
-				try {
-					conn.rollback();
-				} catch (SQLException e1) {
-					log.error("Fail to rollback the transaction.", e1);
-					throw new RuntimeException("End transaction error: fail to rollback the transaction.", e1);
+				conn = node.connPool.borrowConnection();
+			} catch (RuntimeException e) {
+				if(e.getCause() instanceof SQLException && node.recordFailure(breakerFailureThreshold, breakerOpenTimeout)) {
+					log.warn("Open the circuit breaker of cluster db node: " + node.nodeName);
 				}
+				
+				throw e;
 			}
 			
-			try {
-				conn.setAutoCommit(true);
-			} catch (SQLException e) {
-				log.error("fail to set connection auto commit as true after the transacation.", e);
-				throw new RuntimeException("end transaction error: fail to set connection auto commit as true.", e);
-			}
-			
-			close(conn);
+			recordAcquire(node, conn, startTs);
 			
-			toHolder.remove();
+			return conn;
 		}
-	}
-
-	public void rollback() {
-		
-		TransactionOwner to = toHolder.get();
 		
-		if(to != null) {
-			try {
-				to.connection.rollback();
-			} catch (SQLException e) {
-				log.error("Fail to rollback the transaction.", e);
-				throw new RuntimeException("Transaction rollback error.", e);
-			} finally {
-				try {
-					to.connection.setAutoCommit(true);
-				} catch (SQLException e) {
-					log.error("fail to set connection auto commit as true after the transacation.", e);
-					throw new RuntimeException("end transaction error: fail to set connection auto commit as true.", e);
-				}
+		@Override
+		public void close(Object o) {
+			if(o instanceof Connection && o != getTransactionConnection() && returnConnection(node, (Connection) o)) {
+				return;
 			}
 			
-			to.deep = 0;
-			
-			close(to.connection);
-			toHolder.remove();
-		}
-	}
-	
-	public boolean isTransactional() {
-		return toHolder.get() != null;
-	}
-	
-	private class TransactionOwner {
-		Connection connection;
-		int deep;
-		
-		TransactionOwner(Connection connection) {
-			this(connection, 1);
-		}
-
-		TransactionOwner(Connection connection, int deep) {
-			super();
-			this.connection = connection;
-			this.deep = deep;
-		}
-		
-		void increaseDeep() {
-			++ deep;
-		}
-		
-		boolean decressDeep() {
-			return --deep == 0;
-		}
-		
-		public boolean closeable () {
-			return deep == 0;
+			super.close(o);
 		}
 	}
 }
\ No newline at end of file
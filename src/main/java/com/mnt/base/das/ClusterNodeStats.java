@@ -0,0 +1,164 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The runtime statistics of one cluster db node, used by NodeSelector to choose the node.
+ * 
+ * the latency is the exponentially weighted moving average of the time between retrieving and closing the connection.
+ * 
+ * the node carries a circuit breaker: CLOSED serves the requests, OPEN after failureThreshold continuous connection failures,
+ * after the open timeout the background probe moves it to HALF_OPEN and tries one connection, CLOSED again if succeeded
+ * otherwise OPEN for another timeout. the request threads never probe the node.
+ *
+ */
+public class ClusterNodeStats {
+	
+	private static final double EWMA_ALPHA = 0.2;
+	
+	public enum BreakerState {
+		CLOSED, OPEN, HALF_OPEN
+	}
+	
+	protected String nodeName = "";
+	protected int weight = 1;
+	
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private volatile double ewmaLatency = 0;
+	
+	private final AtomicReference<BreakerState> breakerState = new AtomicReference<BreakerState>(BreakerState.CLOSED);
+	private final AtomicInteger failures = new AtomicInteger();
+	private volatile long openUntilTs = 0;
+	
+	public String getNodeName() {
+		return nodeName;
+	}
+	
+	/**
+	 * the configured weight (jdbc.weight) of the node, 1 by default.
+	 * 
+	 * @return
+	 */
+	public int getWeight() {
+		return weight;
+	}
+	
+	/**
+	 * the connections retrieved and not closed yet.
+	 * 
+	 * @return
+	 */
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+	
+	/**
+	 * the average milliseconds of holding the connection.
+	 * 
+	 * @return
+	 */
+	public double getEwmaLatency() {
+		return ewmaLatency;
+	}
+	
+	public BreakerState getBreakerState() {
+		return breakerState.get();
+	}
+	
+	/**
+	 * the continuous connection failures since the last success.
+	 * 
+	 * @return
+	 */
+	public int getFailures() {
+		return failures.get();
+	}
+	
+	public boolean available() {
+		return breakerState.get() == BreakerState.CLOSED;
+	}
+	
+	/**
+	 * record the connection failure, open the breaker if the continuous failures reach the threshold.
+	 * 
+	 * @param failureThreshold
+	 * @param openTimeout the milliseconds before probing the opened node
+	 * @return true if the breaker is opened by this failure
+	 */
+	boolean recordFailure(int failureThreshold, long openTimeout) {
+		if(failures.incrementAndGet() >= failureThreshold) {
+			openUntilTs = System.currentTimeMillis() + openTimeout;
+			return breakerState.getAndSet(BreakerState.OPEN) != BreakerState.OPEN;
+		}
+		
+		return false;
+	}
+	
+	void recordSuccess() {
+		if(failures.get() != 0) {
+			failures.set(0);
+		}
+	}
+	
+	/**
+	 * move the opened breaker to half open once the open timeout elapsed, only one caller wins the probe.
+	 * 
+	 * @return true if the caller should probe the node
+	 */
+	boolean tryHalfOpen() {
+		return System.currentTimeMillis() >= openUntilTs && breakerState.compareAndSet(BreakerState.OPEN, BreakerState.HALF_OPEN);
+	}
+	
+	void closeBreaker() {
+		failures.set(0);
+		breakerState.set(BreakerState.CLOSED);
+	}
+	
+	void reopenBreaker(long openTimeout) {
+		openUntilTs = System.currentTimeMillis() + openTimeout;
+		breakerState.set(BreakerState.OPEN);
+	}
+	
+	void recordAcquire() {
+		outstanding.incrementAndGet();
+	}
+	
+	void recordRelease(long latencyNanos) {
+		outstanding.decrementAndGet();
+		
+		if(latencyNanos >= 0) {
+			double latency = latencyNanos / 1000000d;
+			double last = ewmaLatency;
+			// racy update is acceptable for the statistics
+			ewmaLatency = last == 0 ? latency : last + EWMA_ALPHA * (latency - last);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ClusterNodeStats [nodeName=" + nodeName + ", weight=" + weight
+				+ ", outstanding=" + outstanding.get() + ", ewmaLatency=" + ewmaLatency
+				+ ", breakerState=" + breakerState.get() + ", available=" + available() + "]";
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mnt.base.das;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Compact query result, the column names are shared by all the records and the values are stored in one flat array.
+ *
+ * each record is exposed as the read only map view (key order is the column order), which is created on access
+ * and only refers to the record offset in the flat array.
+ *
+ */
+public class CompactResult extends AbstractList<Map<String, Object>> implements RandomAccess {
+
+	private static final Object[] EMPTY_VALUES = new Object[0];
+
+	// the distinct column labels in order
+	private final String[] keys;
+	// the value column index for each key, the last one wins for the duplicated labels
+	private final int[] keyColumns;
+	private final Map<String, Integer> keyIndex;
+	private final int columnCount;
+
+	private Object[] values = EMPTY_VALUES;
+	private int rowCount;
+
+	public CompactResult(String[] columnLabels) {
+		this.columnCount = columnLabels.length;
+		this.keyIndex = new HashMap<String, Integer>(columnCount * 2);
+
+		String[] ks = new String[columnCount];
+		int[] kcs = new int[columnCount];
+		int keyCount = 0;
+
+		Integer idx;
+		for(int i = 0; i < columnCount; i++) {
+			idx = keyIndex.get(columnLabels[i]);
+
+			if(idx == null) {
+				keyIndex.put(columnLabels[i], keyCount);
+				ks[keyCount] = columnLabels[i];
+				kcs[keyCount] = i;
+				keyCount++;
+			} else {
+				kcs[idx] = i;
+			}
+		}
+
+		this.keys = keyCount == columnCount ? ks : Arrays.copyOf(ks, keyCount);
+		this.keyColumns = keyCount == columnCount ? kcs : Arrays.copyOf(kcs, keyCount);
+	}
+
+	/**
+	 * append the current record of the result set.
+	 *
+	 * @param rs
+	 * @throws SQLException
+	 */
+	void readRow(ResultSet rs) throws SQLException {
+		int offset = rowCount * columnCount;
+
+		if(offset + columnCount > values.length) {
+			values = Arrays.copyOf(values, Math.max(offset + columnCount, values.length * 2));
+		}
+
+		for(int i = 0; i < columnCount; i++) {
+			values[offset + i] = rs.getObject(i + 1);
+		}
+
+		rowCount++;
+	}
+
+	/**
+	 * release the unused capacity after all records loaded.
+	 */
+	void trimToSize() {
+		int len = rowCount * columnCount;
+		if(len < values.length) {
+			values = len == 0 ? EMPTY_VALUES : Arrays.copyOf(values, len);
+		}
+	}
+
+	/**
+	 * the distinct column labels.
+	 *
+	 * @return
+	 */
+	public String[] getColumns() {
+		return keys.clone();
+	}
+
+	/**
+	 * get the value by record index and column label without creating the record view.
+	 *
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public Object getValue(int row, String column) {
+		checkRow(row);
+
+		Integer idx = keyIndex.get(column);
+		return idx == null ? null : values[row * columnCount + keyColumns[idx]];
+	}
+
+	@Override
+	public Map<String, Object> get(int index) {
+		checkRow(index);
+		return new Row(index * columnCount);
+	}
+
+	@Override
+	public int size() {
+		return rowCount;
+	}
+
+	private void checkRow(int row) {
+		if(row < 0 || row >= rowCount) {
+			throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + rowCount);
+		}
+	}
+
+	private class Row extends AbstractMap<String, Object> {
+
+		private final int offset;
+
+		Row(int offset) {
+			this.offset = offset;
+		}
+
+		@Override
+		public Object get(Object key) {
+			Integer idx = keyIndex.get(key);
+			return idx == null ? null : values[offset + keyColumns[idx]];
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return keyIndex.containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return keys.length;
+		}
+
+		@Override
+		public Set<Map.Entry<String, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Object>>() {
+
+				@Override
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					return new Iterator<Map.Entry<String, Object>>() {
+
+						int i = 0;
+
+						@Override
+						public boolean hasNext() {
+							return i < keys.length;
+						}
+
+						@Override
+						public Map.Entry<String, Object> next() {
+							if(i >= keys.length) {
+								throw new NoSuchElementException();
+							}
+
+							Map.Entry<String, Object> entry = new AbstractMap.SimpleImmutableEntry<String, Object>(keys[i], values[offset + keyColumns[i]]);
+							i++;
+							return entry;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException("CompactResult record is read only.");
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return keys.length;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mnt.base.das;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Define the jdbc connection pool engine used by DBFactory and ClusterDBFactory.
+ *
+ * The pool engine can be replaced by overriding DBFactory.newConnectionPool(...).
+ *
+ */
+public interface ConnectionPool {
+
+	/**
+	 * borrow one connection from the pool, create a new one if the pool is not full yet,
+	 * otherwise wait until one connection be returned.
+	 *
+	 * throw RuntimeException if the connection can not be constructed or the wait timeout.
+	 *
+	 * @return
+	 */
+	Connection borrowConnection();
+
+	/**
+	 * return the connection back to the pool.
+	 *
+	 * @param conn
+	 * @return false if the connection is not owned by this pool
+	 */
+	boolean returnConnection(Connection conn);
+
+	/**
+	 * prepare the statement with the pooled connection, reuse the cached statement if the statement cache enabled.
+	 * 
+	 * the statement need to be released by releaseStatement(ps) before returning the connection.
+	 *
+	 * @param conn
+	 * @param sql
+	 * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS
+	 * @return null if the connection is not owned by this pool or the statement cache is disabled
+	 * @throws SQLException
+	 */
+	PreparedStatement prepareStatement(Connection conn, String sql, int autoGeneratedKeys) throws SQLException;
+
+	/**
+	 * release the statement prepared by prepareStatement(...).
+	 *
+	 * @param ps
+	 * @return false if the statement is not cached by this pool, the caller need to close it.
+	 */
+	boolean releaseStatement(PreparedStatement ps);
+
+	/**
+	 * the max connection count of the pool.
+	 *
+	 * @return
+	 */
+	int getMaxPoolSize();
+
+	/**
+	 * the connection count which are borrowed.
+	 *
+	 * @return
+	 */
+	int getActiveCount();
+
+	/**
+	 * the connection count which are ready for borrowing.
+	 *
+	 * @return
+	 */
+	int getIdleCount();
+
+	/**
+	 * the thread count which are waiting for the connection.
+	 *
+	 * @return
+	 */
+	int getWaitingCount();
+
+	/**
+	 * maintain the idle connections, invoked periodically by the background housekeeping thread.
+	 */
+	void housekeep();
+
+	/**
+	 * close all the connections and reject the further borrowing.
+	 */
+	void shutdown();
+
+	/**
+	 * construct the physical jdbc connection for the pool.
+	 */
+	interface ConnectionCreator {
+		Connection createConnection() throws SQLException;
+	}
+}
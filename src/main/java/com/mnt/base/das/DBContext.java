@@ -32,6 +32,9 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 /**
  * DB context impl for JDBC.
  * @author Peng Peng
@@ -39,8 +42,11 @@ import java.util.Map;
  */
 public class DBContext implements IContext {
 	
+	private static Log log = LogFactory.getLog(DBContext.class);
+	
 	protected DBFactory dbFactory;
 	protected int queryTimeout;
+	protected int fetchSize;
 	
 	public DBContext() {
 		this(false);
@@ -50,9 +56,21 @@ public class DBContext implements IContext {
 		if(!skipDefault) {
 			dbFactory = DBFactory.getDBFactory(DBFactory.FactoryType.RELATION_DB);
 			queryTimeout = dbFactory.getQueryTimeout();
+			fetchSize = dbFactory.getFetchSize();
 		}
 	}
 	
+	/**
+	 * the context bound to the specified factory, e.g. ClusterDBFactory.getNodeContext(nodeName).
+	 * 
+	 * @param dbFactory
+	 */
+	public DBContext(DBFactory dbFactory) {
+		this.dbFactory = dbFactory;
+		this.queryTimeout = dbFactory.getQueryTimeout();
+		this.fetchSize = dbFactory.getFetchSize();
+	}
+	
 	public DBFactory getDBFactory(){
 		return dbFactory;
 	}
@@ -63,9 +81,12 @@ public class DBContext implements IContext {
 		Connection con = getDBFactory().getConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(params != null && params.size() > 0){
@@ -76,9 +97,14 @@ public class DBContext implements IContext {
 				}
 				
 				result = prepStmt.executeUpdate() == 1;
+				
+				rows = result ? 1 : 0;
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.save(%s, %s).", sql, params), e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				invalidateCache(sql);
+				
 				if(prepStmt != null){
 					getDBFactory().close(prepStmt);
 				}
@@ -106,10 +132,13 @@ public class DBContext implements IContext {
 		Connection con = getConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			ResultSet rs = null;
 			try {
-				prepStmt = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+				prepStmt = getDBFactory().prepareStatement(con, sql, Statement.RETURN_GENERATED_KEYS);
 				
 				if(params != null && params.size() > 0){
 					for(int i = 0; i < params.size(); i++){
@@ -126,9 +155,14 @@ public class DBContext implements IContext {
 					
 					close(rs);
 				}
+				
+				rows = pk == null ? 0 : 1;
 			} catch (SQLException e) {
 				throw new RuntimeException("Error when invoke DBContext.save(sql, params).", e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				invalidateCache(sql);
+				
 				
 				if(rs != null){
 					getDBFactory().close(rs);
@@ -149,10 +183,32 @@ public class DBContext implements IContext {
 	
 	@Override
 	public boolean bulkSave(String sql, List<List<Object>> batchParams) {
+		
+		if(batchParams != null && batchParams.size() > 1 && getDBFactory().isBulkInsertRewrite()) {
+			MultiRowInsert insert = MultiRowInsert.parse(sql);
+			
+			if(insert != null && insert.accepts(batchParams)) {
+				return bulkSave(sql, insert, batchParams);
+			}
+		}
+		
+		return batchSave(sql, batchParams);
+	}
+	
+	/**
+	 * save the records with the jdbc batch of the sql.
+	 * 
+	 * @param sql
+	 * @param batchParams
+	 * @return
+	 */
+	private boolean batchSave(String sql, List<List<Object>> batchParams) {
 		boolean result = false;
 		Connection con = getDBFactory().getConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
 			
 			if(!TransactionManager.isTransactional()) {
 				try {
@@ -164,7 +220,7 @@ public class DBContext implements IContext {
 			
 			PreparedStatement prepStmt = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(batchParams != null && batchParams.size() > 0){
@@ -184,6 +240,8 @@ public class DBContext implements IContext {
 				if(!TransactionManager.isTransactional()) {
 					con.commit();
 				}
+				
+				rows = batchParams.size();
 			} catch (SQLException e) {
 				if(!TransactionManager.isTransactional()) {
 					try {
@@ -194,6 +252,9 @@ public class DBContext implements IContext {
 				}
 				throw new RuntimeException(String.format("Error when invoke DBContext.bulkSave(%s, params).", sql), e);
 			}finally{
+				recordStatement(sql, null, startTs, rows);
+				invalidateCache(sql);
+				
 				if(prepStmt != null){
 					getDBFactory().close(prepStmt);
 				}
@@ -217,12 +278,111 @@ public class DBContext implements IContext {
 		return result;
 	}
 	
+	/**
+	 * save the records with the chunked multi rows insert statements.
+	 * 
+	 * @param sql
+	 * @param insert
+	 * @param batchParams
+	 * @return
+	 */
+	protected boolean bulkSave(String sql, MultiRowInsert insert, List<List<Object>> batchParams) {
+		boolean result = false;
+		Connection con = getDBFactory().getConnection();
+		
+		if(con != null){
+			int maxParams = getDBFactory().getMaxStatementParams(con);
+			
+			if(maxParams == 0) {
+				// the multi rows insert is not supported by the database
+				getDBFactory().close(con);
+				return batchSave(sql, batchParams);
+			}
+			
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
+			if(!TransactionManager.isTransactional()) {
+				try {
+					con.setAutoCommit(false);
+				} catch (SQLException e) {
+					throw new RuntimeException(String.format("Error when invoke DBContext.bulkSave(%s, params) where initial transaction.", sql), e);
+				}
+			}
+			
+			PreparedStatement prepStmt = null;
+			try {
+				int chunkRows = insert.chunkRows(getDBFactory().getBulkInsertChunkSize(), maxParams);
+				int total = batchParams.size();
+				
+				for(int offset = 0; offset < total; offset += chunkRows) {
+					int chunk = Math.min(chunkRows, total - offset);
+					
+					prepStmt = getDBFactory().prepareStatement(con, insert.getSql(chunk));
+					populateStatement(prepStmt);
+					
+					int idx = 1;
+					for(int r = offset; r < offset + chunk; r++) {
+						for(Object param : batchParams.get(r)) {
+							prepStmt.setObject(idx++, param);
+						}
+					}
+					
+					prepStmt.executeUpdate();
+					
+					getDBFactory().close(prepStmt);
+					prepStmt = null;
+				}
+				
+				result = true;
+				
+				if(!TransactionManager.isTransactional()) {
+					con.commit();
+				}
+				
+				rows = total;
+			} catch (SQLException e) {
+				if(!TransactionManager.isTransactional()) {
+					try {
+						con.rollback();
+					} catch (SQLException e1) {
+						throw new RuntimeException(String.format("Error when invoke DBContext.bulkSave(%s, params) where rollback.", sql), e);
+					}
+				}
+				throw new RuntimeException(String.format("Error when invoke DBContext.bulkSave(%s, params).", sql), e);
+			}finally{
+				recordStatement(sql, null, startTs, rows);
+				invalidateCache(sql);
+				
+				if(prepStmt != null){
+					getDBFactory().close(prepStmt);
+				}
+				
+				if(con != null) {
+					if(!TransactionManager.isTransactional()) {
+						try {
+							con.setAutoCommit(true);
+						} catch (SQLException e) {
+							throw new RuntimeException(String.format("Error when invoke DBContext.bulkSave(%s, params) where commit.", sql), e);
+						}
+					}
+					
+					getDBFactory().close(con);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
 	@Override
 	public int[] bulkUpdate(String sql, List<List<Object>> batchParams) {
 		int[] result = null;
 		Connection con = getDBFactory().getConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
 			
 			if(!TransactionManager.isTransactional()) {
 				try {
@@ -234,7 +394,7 @@ public class DBContext implements IContext {
 			
 			PreparedStatement prepStmt = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(batchParams != null && batchParams.size() > 0){
@@ -252,6 +412,8 @@ public class DBContext implements IContext {
 				if(!TransactionManager.isTransactional()) {
 					con.commit();
 				}
+				
+				rows = result.length;
 			} catch (SQLException e) {
 				if(!TransactionManager.isTransactional()) {
 					try {
@@ -262,6 +424,9 @@ public class DBContext implements IContext {
 				}
 				throw new RuntimeException(String.format("Error when invoke DBContext.bulkUpdate(%s, params).", sql), e);
 			}finally{
+				recordStatement(sql, null, startTs, rows);
+				invalidateCache(sql);
+				
 				if(prepStmt != null){
 					getDBFactory().close(prepStmt);
 				}
@@ -286,14 +451,23 @@ public class DBContext implements IContext {
 	
 	@Override
 	public int count(String sql, List<Object> params){
+		QueryCache.Key cacheKey = cacheKey("count", sql, params, null);
+		Integer cached = (Integer) getCached(cacheKey);
+		if(cached != null) {
+			return cached;
+		}
+		
 		int result = 0;
-		Connection con = getDBFactory().getConnection();
+		Connection con = getDBFactory().getReadConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			ResultSet rs = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(params != null && params.size() > 0){
@@ -307,9 +481,13 @@ public class DBContext implements IContext {
 				if(rs.next()){
 					result = rs.getInt(1);
 				}
+				
+				rows = 1;
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.count(%s, %s).", sql, params), e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				
 				
 				if(rs != null){
 					getDBFactory().close(rs);
@@ -325,19 +503,30 @@ public class DBContext implements IContext {
 			}
 		}
 		
+		putCached(cacheKey, result);
+		
 		return result;
 	}
 
 	@Override
 	public boolean exists(String sql, List<Object> params){
+		QueryCache.Key cacheKey = cacheKey("exists", sql, params, null);
+		Boolean cached = (Boolean) getCached(cacheKey);
+		if(cached != null) {
+			return cached;
+		}
+		
 		boolean result = false;
-		Connection con = getDBFactory().getConnection();
+		Connection con = getDBFactory().getReadConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			ResultSet rs = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(params != null && params.size() > 0){
@@ -351,9 +540,13 @@ public class DBContext implements IContext {
 				if(rs.next()){
 					result = rs.getInt(1) > 0;
 				}
+				
+				rows = 1;
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.exists(%s, %s).", sql, params), e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				
 				
 				if(rs != null){
 					getDBFactory().close(rs);
@@ -369,20 +562,32 @@ public class DBContext implements IContext {
 			}
 		}
 		
+		putCached(cacheKey, result);
+		
 		return result;
 	}
 	
 	@Override
 	public List<Map<String, Object>> query(String sql, List<Object> params,
 			List<String> resultKeys) {
+		QueryCache.Key cacheKey = cacheKey("queryKeys", sql, params, resultKeys);
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> cached = (List<Map<String, Object>>) getCached(cacheKey);
+		if(cached != null) {
+			return copyRows(cached);
+		}
+		
 		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();;
-		Connection con = getDBFactory().getConnection();
+		Connection con = getDBFactory().getReadConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			ResultSet rs = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(params != null && params.size() > 0){
@@ -404,9 +609,12 @@ public class DBContext implements IContext {
 					results.add(result);
 				}
 				
+				rows = results.size();
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.query(%s, %s, %s).", sql, params, resultKeys), e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				
 				
 				if(rs != null){
 					getDBFactory().close(rs);
@@ -422,19 +630,31 @@ public class DBContext implements IContext {
 			}
 		}
 		
+		putCached(cacheKey, copyRows(results));
+		
 		return results;
 	}
 	
 	@Override
 	public List<Map<String, Object>> query(String sql, List<Object> params) {
+		QueryCache.Key cacheKey = cacheKey("query", sql, params, null);
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> cached = (List<Map<String, Object>>) getCached(cacheKey);
+		if(cached != null) {
+			return copyRows(cached);
+		}
+		
 		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();;
-		Connection con = getDBFactory().getConnection();
+		Connection con = getDBFactory().getReadConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			ResultSet rs = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(params != null && params.size() > 0){
@@ -464,9 +684,12 @@ public class DBContext implements IContext {
 					results.add(result);
 				}
 				
+				rows = results.size();
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.query(%s, %s).", sql, params), e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				
 				
 				if(rs != null){
 					getDBFactory().close(rs);
@@ -482,20 +705,247 @@ public class DBContext implements IContext {
 			}
 		}
 		
+		putCached(cacheKey, copyRows(results));
+		
 		return results;
 	}
 	
+	@Override
+	public CompactResult queryCompact(String sql, List<Object> params) {
+		QueryCache.Key cacheKey = cacheKey("queryCompact", sql, params, null);
+		CompactResult cached = (CompactResult) getCached(cacheKey);
+		if(cached != null) {
+			return cached;
+		}
+		
+		CompactResult results = null;
+		Connection con = getDBFactory().getReadConnection();
+		
+		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
+			PreparedStatement prepStmt = null;
+			ResultSet rs = null;
+			try {
+				prepStmt = getDBFactory().prepareStatement(con, sql);
+				populateStatement(prepStmt);
+				
+				if(params != null && params.size() > 0){
+					for(int i = 0; i < params.size(); i++){
+						prepStmt.setObject(i + 1, params.get(i));
+					}
+				}
+				
+				rs = prepStmt.executeQuery();
+				
+				ResultSetMetaData metaData = rs.getMetaData();
+				
+				String[] resultKeys = new String[metaData.getColumnCount()];
+				
+				for(int x = 0; x < resultKeys.length; x++ ){
+					resultKeys[x] = metaData.getColumnLabel(x + 1);
+				}
+				
+				results = new CompactResult(resultKeys);
+				
+				while(rs.next()){
+					results.readRow(rs);
+				}
+				
+				results.trimToSize();
+				
+				rows = results.size();
+			} catch (SQLException e) {
+				throw new RuntimeException(String.format("Error when invoke DBContext.queryCompact(%s, %s).", sql, params), e);
+			}finally{
+				recordStatement(sql, params, startTs, rows);
+				
+				
+				if(rs != null){
+					getDBFactory().close(rs);
+				}
+				
+				if(prepStmt != null){
+					getDBFactory().close(prepStmt);
+				}
+				
+				if(con != null){
+					getDBFactory().close(con);
+				}
+			}
+		}
+		
+		putCached(cacheKey, results);
+		
+		return results;
+	}
+	
+	@Override
+	public <T> List<T> query(String sql, List<Object> params, Class<T> beanClass) {
+		// the beans are mutable and not shared by the query cache
+		BeanRowMapper<T> mapper = BeanRowMapper.getInstance(beanClass);
+		
+		List<T> results = new ArrayList<T>();
+		Connection con = getDBFactory().getReadConnection();
+		
+		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
+			PreparedStatement prepStmt = null;
+			ResultSet rs = null;
+			try {
+				prepStmt = getDBFactory().prepareStatement(con, sql);
+				populateStatement(prepStmt);
+				
+				if(params != null && params.size() > 0){
+					for(int i = 0; i < params.size(); i++){
+						prepStmt.setObject(i + 1, params.get(i));
+					}
+				}
+				
+				rs = prepStmt.executeQuery();
+				
+				BeanRowMapper.ColumnSetter[] setters = mapper.bind(rs);
+				
+				while(rs.next()){
+					results.add(mapper.mapRow(rs, setters));
+				}
+				
+				rows = results.size();
+			} catch (SQLException e) {
+				throw new RuntimeException(String.format("Error when invoke DBContext.query(%s, %s, %s).", sql, params, beanClass.getName()), e);
+			}finally{
+				recordStatement(sql, params, startTs, rows);
+				
+				if(rs != null){
+					getDBFactory().close(rs);
+				}
+				
+				if(prepStmt != null){
+					getDBFactory().close(prepStmt);
+				}
+				
+				if(con != null){
+					getDBFactory().close(con);
+				}
+			}
+		}
+		
+		return results;
+	}
+	
+	@Override
+	public int query(String sql, List<Object> params, RowHandler rowHandler) {
+		return query(sql, params, fetchSize, rowHandler);
+	}
+	
+	@Override
+	public int query(String sql, List<Object> params, int fetchSize, RowHandler rowHandler) {
+		int count = 0;
+		Connection con = getDBFactory().getReadConnection();
+		
+		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
+			PreparedStatement prepStmt = null;
+			ResultSet rs = null;
+			try {
+				prepStmt = getDBFactory().prepareStatement(con, sql);
+				populateStatement(prepStmt);
+				
+				if(fetchSize != 0) {
+					prepStmt.setFetchSize(fetchSize);
+				}
+				
+				if(params != null && params.size() > 0){
+					for(int i = 0; i < params.size(); i++){
+						prepStmt.setObject(i + 1, params.get(i));
+					}
+				}
+				
+				rs = prepStmt.executeQuery();
+				
+				ResultSetMetaData metaData = rs.getMetaData();
+				
+				int columnCount = metaData.getColumnCount();
+				String[] resultKeys = new String[columnCount];
+				
+				for(int x = 0; x < columnCount; x++ ){
+					resultKeys[x] = metaData.getColumnLabel(x + 1);
+				}
+				
+				Map<String, Object> result = null;
+				while(rs.next()){
+					
+					result = new LinkedHashMap<String, Object>();
+					for(int x = 0; x < columnCount; x++){
+						result.put(resultKeys[x], rs.getObject(x + 1));
+					}
+					
+					count++;
+					
+					if(!rowHandler.handleRow(result)) {
+						break;
+					}
+				}
+				
+				rows = count;
+			} catch (SQLException e) {
+				throw new RuntimeException(String.format("Error when invoke DBContext.query(%s, %s, %s, rowHandler).", sql, params, fetchSize), e);
+			}finally{
+				recordStatement(sql, params, startTs, rows);
+				
+				
+				if(rs != null){
+					getDBFactory().close(rs);
+				}
+				
+				if(prepStmt != null){
+					if(fetchSize != 0) {
+						// the statement may be reused from the statement cache
+						try {
+							prepStmt.setFetchSize(0);
+						} catch (SQLException e) {
+							// skip it
+						}
+					}
+					
+					getDBFactory().close(prepStmt);
+				}
+				
+				if(con != null){
+					getDBFactory().close(con);
+				}
+			}
+		}
+		
+		return count;
+	}
+	
 	@Override
 	public List<Map<String, Object>> query(String sql, List<Object> params,
 			Map<String, String> resultKeyMap) {
+		QueryCache.Key cacheKey = cacheKey("queryKeyMap", sql, params, resultKeyMap);
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> cached = (List<Map<String, Object>>) getCached(cacheKey);
+		if(cached != null) {
+			return copyRows(cached);
+		}
+		
 		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();;
-		Connection con = getDBFactory().getConnection();
+		Connection con = getDBFactory().getReadConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			ResultSet rs = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(params != null && params.size() > 0){
@@ -517,9 +967,12 @@ public class DBContext implements IContext {
 					results.add(result);
 				}
 				
+				rows = results.size();
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.query(%s, %s, %s).", sql, params, resultKeyMap), e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				
 				
 				if(rs != null){
 					getDBFactory().close(rs);
@@ -535,6 +988,8 @@ public class DBContext implements IContext {
 			}
 		}
 		
+		putCached(cacheKey, copyRows(results));
+		
 		return results;
 	}
 	
@@ -544,9 +999,12 @@ public class DBContext implements IContext {
 		Connection con = getDBFactory().getConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(params != null && params.size() > 0){
@@ -556,9 +1014,14 @@ public class DBContext implements IContext {
 				}
 				
 				result = prepStmt.executeUpdate();
+				
+				rows = result;
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.update(%s, %s).", sql, params), e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				invalidateCache(sql);
+				
 				if(prepStmt != null){
 					getDBFactory().close(prepStmt);
 				}
@@ -580,9 +1043,12 @@ public class DBContext implements IContext {
 		Connection con = getDBFactory().getConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(params != null && params.size() > 0){
@@ -592,9 +1058,14 @@ public class DBContext implements IContext {
 				}
 				
 				result = prepStmt.executeUpdate();
+				
+				rows = result;
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.delete(%s, %s).", sql, params), e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				invalidateCache(sql);
+				
 				if(prepStmt != null){
 					getDBFactory().close(prepStmt);
 				}
@@ -614,14 +1085,22 @@ public class DBContext implements IContext {
 		Connection con = getDBFactory().getConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			Statement statment = null;
 			try {
 				statment = con.createStatement();
 				populateStatement(statment);
 				result = statment.execute(sql);
+				
+				rows = 0;
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.execute(%s).", sql), e);
 			}finally{
+				recordStatement(sql, null, startTs, rows);
+				invalidateCache(sql);
+				
 				if(statment != null){
 					getDBFactory().close(statment);
 				}
@@ -637,14 +1116,24 @@ public class DBContext implements IContext {
 
 	@Override
 	public Map<String, Object> get(String sql, List<Object> params, List<String> resultKeys) {
+		QueryCache.Key cacheKey = cacheKey("getKeys", sql, params, resultKeys);
+		@SuppressWarnings("unchecked")
+		Map<String, Object> cached = (Map<String, Object>) getCached(cacheKey);
+		if(cached != null) {
+			return copyRow(cached);
+		}
+		
 		Map<String, Object> result = null;
-		Connection con = getDBFactory().getConnection();
+		Connection con = getDBFactory().getReadConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			ResultSet rs = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(params != null && params.size() > 0){
@@ -663,9 +1152,12 @@ public class DBContext implements IContext {
 					}
 				}
 				
+				rows = result == null ? 0 : 1;
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.get(%s, %s, %s).", sql, params, resultKeys), e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				
 				
 				if(rs != null){
 					getDBFactory().close(rs);
@@ -681,19 +1173,31 @@ public class DBContext implements IContext {
 			}
 		}
 		
+		putCached(cacheKey, copyRow(result));
+		
 		return result;
 	}
 	
 	@Override
 	public Map<String, Object> get(String sql, List<Object> params) {
+		QueryCache.Key cacheKey = cacheKey("get", sql, params, null);
+		@SuppressWarnings("unchecked")
+		Map<String, Object> cached = (Map<String, Object>) getCached(cacheKey);
+		if(cached != null) {
+			return copyRow(cached);
+		}
+		
 		Map<String, Object> result = null;
-		Connection con = getDBFactory().getConnection();
+		Connection con = getDBFactory().getReadConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			ResultSet rs = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(params != null && params.size() > 0){
@@ -720,9 +1224,12 @@ public class DBContext implements IContext {
 					}
 				}
 				
+				rows = result == null ? 0 : 1;
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.get(%s, %s).", sql, params), e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				
 				
 				if(rs != null){
 					getDBFactory().close(rs);
@@ -738,19 +1245,31 @@ public class DBContext implements IContext {
 			}
 		}
 		
+		putCached(cacheKey, copyRow(result));
+		
 		return result;
 	}
 	
 	@Override
 	public Map<String, Object> get(String sql, List<Object> params, Map<String, String> resultKeyMap) {
+		QueryCache.Key cacheKey = cacheKey("getKeyMap", sql, params, resultKeyMap);
+		@SuppressWarnings("unchecked")
+		Map<String, Object> cached = (Map<String, Object>) getCached(cacheKey);
+		if(cached != null) {
+			return copyRow(cached);
+		}
+		
 		Map<String, Object> result = null;
-		Connection con = getDBFactory().getConnection();
+		Connection con = getDBFactory().getReadConnection();
 		
 		if(con != null){
+			long startTs = System.nanoTime();
+			int rows = -1;
+			
 			PreparedStatement prepStmt = null;
 			ResultSet rs = null;
 			try {
-				prepStmt = con.prepareStatement(sql);
+				prepStmt = getDBFactory().prepareStatement(con, sql);
 				populateStatement(prepStmt);
 				
 				if(params != null && params.size() > 0){
@@ -769,9 +1288,12 @@ public class DBContext implements IContext {
 					}
 				}
 				
+				rows = result == null ? 0 : 1;
 			} catch (SQLException e) {
 				throw new RuntimeException(String.format("Error when invoke DBContext.get(%s, %s, %s).", sql, params, resultKeyMap), e);
 			}finally{
+				recordStatement(sql, params, startTs, rows);
+				
 				if(rs != null){
 					getDBFactory().close(rs);
 				}
@@ -786,9 +1308,93 @@ public class DBContext implements IContext {
 			}
 		}
 		
+		putCached(cacheKey, copyRow(result));
+		
 		return result;
 	}
 	
+	/**
+	 * record the statement to the metrics sink and log it if it is slow.
+	 * 
+	 * @param sql
+	 * @param params
+	 * @param startTs the nano time before executing
+	 * @param rows -1 if failed
+	 */
+	protected void recordStatement(String sql, List<?> params, long startTs, int rows) {
+		DBFactory factory = getDBFactory();
+		MetricsSink sink = factory.getMetricsSink();
+		long slowQueryThreshold = factory.getSlowQueryThreshold();
+		
+		if(sink == null && slowQueryThreshold < 0) {
+			return;
+		}
+		
+		long latency = System.nanoTime() - startTs;
+		
+		if(sink != null) {
+			sink.recordStatement(sql, latency, rows);
+		}
+		
+		if(slowQueryThreshold >= 0 && latency >= slowQueryThreshold * 1000000L) {
+			log.warn(String.format("Slow query (%d ms, %d rows): %s, params: %s", latency / 1000000L, rows, sql, params));
+		}
+	}
+	
+	/**
+	 * create the query cache key, null if the query cache is disabled, the query is not cacheable or in transaction.
+	 * 
+	 * @param kind
+	 * @param sql
+	 * @param params
+	 * @param extra
+	 * @return
+	 */
+	protected QueryCache.Key cacheKey(String kind, String sql, List<Object> params, Object extra) {
+		DBFactory factory = getDBFactory();
+		QueryCache queryCache = factory.getQueryCache();
+		
+		return queryCache == null || factory.isTransactional() ? null : queryCache.newKey(kind, sql, params, extra);
+	}
+	
+	protected Object getCached(QueryCache.Key cacheKey) {
+		return cacheKey == null ? null : getDBFactory().getQueryCache().get(cacheKey);
+	}
+	
+	protected void putCached(QueryCache.Key cacheKey, Object result) {
+		if(cacheKey != null && result != null) {
+			getDBFactory().getQueryCache().put(cacheKey, result);
+		}
+	}
+	
+	/**
+	 * invalidate the cached results of the table written by the sql.
+	 * 
+	 * @param sql
+	 */
+	protected void invalidateCache(String sql) {
+		DBFactory factory = getDBFactory();
+		QueryCache queryCache = factory.getQueryCache();
+		
+		if(queryCache != null) {
+			queryCache.invalidate(sql, factory.isTransactional());
+		}
+	}
+	
+	// the cached records are shared, copy them for the caller
+	private static List<Map<String, Object>> copyRows(List<Map<String, Object>> rows) {
+		List<Map<String, Object>> copy = new ArrayList<Map<String, Object>>(rows.size());
+		for(Map<String, Object> row : rows) {
+			copy.add(new LinkedHashMap<String, Object>(row));
+		}
+		
+		return copy;
+	}
+	
+	private static Map<String, Object> copyRow(Map<String, Object> row) {
+		return row == null ? null : new HashMap<String, Object>(row);
+	}
+	
 	protected void populateStatement(Statement stat) throws SQLException {
 		
 		if(queryTimeout > 0) {
@@ -28,16 +28,23 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.Properties;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.ObjectName;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.mnt.base.util.BaseConfiguration;
 import com.mnt.base.util.CommonUtil;
+import com.mnt.base.util.TimeUtil;
 
 
 
@@ -54,13 +61,42 @@ public abstract class DBFactory {
 	protected static final String DB_DRIVER     = "jdbc.driver";
 	protected static final String DB_POOL_SIZE  = "jdbc.maxPoolSize";
 	protected static final String DB_QUERY_TIMEOUT  = "jdbc.queryTimeout";
+	protected static final String DB_FETCH_SIZE  = "jdbc.fetchSize";
+	protected static final String DB_CONNECTION_TIMEOUT  = "jdbc.connectionTimeout";
+	protected static final String DB_MIN_IDLE  = "jdbc.minIdle";
+	protected static final String DB_IDLE_TIMEOUT  = "jdbc.idleTimeout";
+	protected static final String DB_MAX_LIFETIME  = "jdbc.maxLifetime";
+	protected static final String DB_VALIDATION_INTERVAL  = "jdbc.validationInterval";
+	protected static final String DB_VALIDATION_TIMEOUT  = "jdbc.validationTimeout";
+	protected static final String DB_HOUSEKEEPING_PERIOD  = "jdbc.housekeepingPeriod";
+	protected static final String DB_STATEMENT_CACHE_SIZE  = "jdbc.statementCacheSize";
+	protected static final String DB_METRICS  = "jdbc.metrics";
+	protected static final String DB_METRICS_JMX  = "jdbc.metricsJmx";
+	protected static final String DB_SLOW_QUERY_THRESHOLD  = "jdbc.slowQueryThreshold";
+	protected static final String DB_QUERY_CACHE_SIZE  = "jdbc.queryCacheSize";
+	protected static final String DB_QUERY_CACHE_TTL  = "jdbc.queryCacheTtl";
+	protected static final String DB_QUERY_CACHE_TABLES  = "jdbc.queryCacheTables";
+	protected static final String DB_BULK_INSERT_REWRITE  = "jdbc.bulkInsertRewrite";
+	protected static final String DB_BULK_INSERT_CHUNK_SIZE  = "jdbc.bulkInsertChunkSize";
+	protected static final String DB_MAX_STATEMENT_PARAMS  = "jdbc.maxStatementParams";
+	protected static final String DB_LEAK_DETECTION_THRESHOLD  = "jdbc.leakDetectionThreshold";
+	protected static final String DB_LEAK_STACK_SAMPLE_RATE  = "jdbc.leakStackSampleRate";
+	protected static final String DB_LEAK_RECLAIM_TIMEOUT  = "jdbc.leakReclaimTimeout";
+	protected static final String DB_LEAK_DUMP_PERIOD  = "jdbc.leakDumpPeriod";
+	
+	protected ConnectionPool connPool;
 	
-	private BlockingQueue<Connection> connPool = new LinkedBlockingQueue<Connection>();
-	private BlockingQueue<Connection> usingConnPool = new LinkedBlockingQueue<Connection>();
+	protected MetricsSink metricsSink;
+	protected long slowQueryThreshold = -1;
 	
-	private Object connCreationLock = new Object();
+	protected QueryCache queryCache;
 	
-	private int maxPoolSize = 10;
+	protected boolean bulkInsertRewrite;
+	protected int bulkInsertChunkSize = 500;
+	protected volatile int maxStatementParams;
+	
+	private static volatile ScheduledExecutorService housekeeper;
+	private static final ReentrantLock housekeeperLock = new ReentrantLock();
 	
 	protected Properties prop = new Properties();
 	
@@ -68,6 +104,9 @@ public abstract class DBFactory {
 	
 	protected ThreadLocal<TransactionOwner> toHolder = new ThreadLocal<TransactionOwner>();
 	
+	// marks the root scope ended by the exception, so the following rollback() does not pop the resumed transaction
+	private ThreadLocal<Boolean> failedEndHolder = new ThreadLocal<Boolean>();
+	
 	enum FactoryType{
 		RELATION_DB,
 		FILE_DB
@@ -111,12 +150,20 @@ public abstract class DBFactory {
 				throw new RuntimeException("Error when loading db driver: " + prop.getProperty(DB_DRIVER), e);
 			}
 			
-			try{
-				maxPoolSize = Integer.parseInt(prop.getProperty(DB_POOL_SIZE));
-			}catch(Throwable e){
-				log.debug("Not set the db_pool_size, use the default value 10.");
-				maxPoolSize = 10;
-			}
+			initMetrics(prop.getProperty(DB_METRICS), 
+					CommonUtil.parseAsBoolean(prop.getProperty(DB_METRICS_JMX), false), 
+					CommonUtil.parseAsLong(prop.getProperty(DB_SLOW_QUERY_THRESHOLD), -1));
+			
+			initQueryCache(CommonUtil.parseAsInt(prop.getProperty(DB_QUERY_CACHE_SIZE), 0), 
+					CommonUtil.parseAsLong(prop.getProperty(DB_QUERY_CACHE_TTL), TimeUtil.MINUTES_1), 
+					prop.getProperty(DB_QUERY_CACHE_TABLES));
+			
+			bulkInsertRewrite = CommonUtil.parseAsBoolean(prop.getProperty(DB_BULK_INSERT_REWRITE), false);
+			bulkInsertChunkSize = CommonUtil.parseAsInt(prop.getProperty(DB_BULK_INSERT_CHUNK_SIZE), bulkInsertChunkSize);
+			maxStatementParams = CommonUtil.parseAsInt(prop.getProperty(DB_MAX_STATEMENT_PARAMS), 0);
+			
+			connPool = newConnectionPool(dbConf, prop);
+			startHousekeeping(connPool, prop);
 			
 		}else{
 			log.error("Could not found db config file: " + dbConf);
@@ -126,13 +173,9 @@ public abstract class DBFactory {
 	
 	public Connection getConnection(){
 		
-		Connection conn;
-		
-		TransactionOwner to = toHolder.get();
+		Connection conn = getTransactionConnection();
 		
-		if(to != null) {
-			conn = to.connection;
-		} else {
+		if(conn == null) {
 			conn = retrieveConnection();
 		}
 		
@@ -140,116 +183,341 @@ public abstract class DBFactory {
 	}
 	
 	private Connection retrieveConnection() {
+		return connPool.borrowConnection();
+	}
+	
+	/**
+	 * construct the connection pool engine with the jdbc properties, override it to plug in other pool engine.
+	 * 
+	 * @param poolName
+	 * @param poolProp
+	 * @return
+	 */
+	protected ConnectionPool newConnectionPool(String poolName, final Properties poolProp) {
 		
-		Connection connection = null;
+		int maxPoolSize = CommonUtil.parseAsInt(poolProp.getProperty(DB_POOL_SIZE), -1);
+		if(maxPoolSize < 1) {
+			log.debug("Not set the db_pool_size, use the default value 10.");
+			maxPoolSize = 10;
+		}
+		
+		long connectionTimeout = CommonUtil.parseAsLong(poolProp.getProperty(DB_CONNECTION_TIMEOUT), 0);
+		
+		SlotConnectionPool pool = new SlotConnectionPool(poolName, maxPoolSize, connectionTimeout, new ConnectionPool.ConnectionCreator() {
+			@Override
+			public Connection createConnection() throws SQLException {
+				return DriverManager.getConnection(poolProp.getProperty(DB_URL), 
+												   poolProp.getProperty(DB_USER), 
+												   poolProp.getProperty(DB_PASSWORD));
+			}
+		});
+		
+		pool.setMinIdle(CommonUtil.parseAsInt(poolProp.getProperty(DB_MIN_IDLE), pool.getMinIdle()));
+		pool.setIdleTimeout(CommonUtil.parseAsLong(poolProp.getProperty(DB_IDLE_TIMEOUT), pool.getIdleTimeout()));
+		pool.setMaxLifetime(CommonUtil.parseAsLong(poolProp.getProperty(DB_MAX_LIFETIME), pool.getMaxLifetime()));
+		pool.setValidationInterval(CommonUtil.parseAsLong(poolProp.getProperty(DB_VALIDATION_INTERVAL), pool.getValidationInterval()));
+		pool.setValidationTimeout(CommonUtil.parseAsInt(poolProp.getProperty(DB_VALIDATION_TIMEOUT), pool.getValidationTimeout()));
+		pool.setStatementCacheSize(CommonUtil.parseAsInt(poolProp.getProperty(DB_STATEMENT_CACHE_SIZE), pool.getStatementCacheSize()));
 		
-		while(connPool.size() > 0 || usingConnPool.size() >= maxPoolSize) {
-			connection = connPool.poll();
+		pool.setLeakDetectionThreshold(CommonUtil.parseAsLong(poolProp.getProperty(DB_LEAK_DETECTION_THRESHOLD), pool.getLeakDetectionThreshold()));
+		if(pool.getLeakDetectionThreshold() > 0) {
+			pool.setLeakStackSampleRate(CommonUtil.parseAsInt(poolProp.getProperty(DB_LEAK_STACK_SAMPLE_RATE), pool.getLeakStackSampleRate()));
+			pool.setLeakReclaimTimeout(CommonUtil.parseAsLong(poolProp.getProperty(DB_LEAK_RECLAIM_TIMEOUT), pool.getLeakReclaimTimeout()));
+			pool.setLeakDumpPeriod(CommonUtil.parseAsLong(poolProp.getProperty(DB_LEAK_DUMP_PERIOD), pool.getLeakDumpPeriod()));
 			
-			if(connection != null) {
-				try {
-					if(connection.isValid(0)){
-						
-						usingConnPool.add(connection);
-						
-						return connection;
-					}
-				} catch (SQLException e) {
-					try {
-						connection.close();
-					} catch (SQLException e1) {
-						// ignore
-					}
-				}
+			DBMetrics.registerMBean(DBMetrics.JMX_DOMAIN + ":type=ConnectionLeaks,name=" + ObjectName.quote(poolName), pool, LeakDetectionMBean.class);
+		}
+		
+		if(metricsSink != null) {
+			pool.setMetricsSink(metricsSink);
+			metricsSink.registerPool(poolName, pool);
+		}
+		
+		return pool;
+	}
+	
+	/**
+	 * setup the metrics sink before constructing the pools.
+	 * 
+	 * @param metrics true for the shared DBMetrics registry, or the class name of the MetricsSink, empty or false to disable it
+	 * @param jmx expose the DBMetrics registry by JMX
+	 * @param slowQueryThreshold log the statement executed over the milliseconds, -1 to disable it
+	 */
+	protected void initMetrics(String metrics, boolean jmx, long slowQueryThreshold) {
+		this.slowQueryThreshold = slowQueryThreshold;
+		
+		if(CommonUtil.isEmpty(metrics) || "false".equalsIgnoreCase(metrics)) {
+			return;
+		}
+		
+		if("true".equalsIgnoreCase(metrics)) {
+			metricsSink = DBMetrics.getInstance();
+		} else {
+			try {
+				metricsSink = Class.forName(metrics).asSubclass(MetricsSink.class).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | ClassCastException e) {
+				log.error("Error when loading the metrics sink: " + metrics, e);
+				throw new RuntimeException("Error when loading the metrics sink: " + metrics, e);
+			}
+		}
+		
+		if(jmx) {
+			if(metricsSink instanceof DBMetrics) {
+				((DBMetrics) metricsSink).enableJmx();
 			} else {
-				Iterator<Connection> conns = usingConnPool.iterator();
-				Connection conn;
-				while(conns.hasNext()) {
-					conn = conns.next();
-							
-					try {
-						if(conn.isClosed()){
-							usingConnPool.remove(conn);
-						}
-					} catch (SQLException e) {
-						
-						try{
-							conn.close();
-						}catch(SQLException e1){
-							// skip it
-						}
-						
-						usingConnPool.remove(conn);
-					}
-						
-					if(usingConnPool.size() < maxPoolSize){
-						break;
-					}
-				}
-				
-				if(usingConnPool.size() >= maxPoolSize) {
-					synchronized (connPool) {
-						try {
-							connPool.wait(1000);
-						} catch (InterruptedException e) {
-							log.error("error while wait for the connection.", e);
-						}
-					}
-				}
+				log.warn("The JMX exposure is only supported by DBMetrics, skip it for: " + metrics);
 			}
 		}
+	}
+	
+	/**
+	 * setup the query result cache of DBContext.
+	 * 
+	 * @param capacity the max cached results, 0 to disable the cache
+	 * @param ttl the milliseconds the result kept in the cache
+	 * @param tables the comma separated tables allowed to be cached, empty for all tables
+	 */
+	protected void initQueryCache(int capacity, long ttl, String tables) {
+		if(capacity <= 0) {
+			return;
+		}
 		
-		synchronized (connCreationLock) {
-			if(usingConnPool.size() < maxPoolSize){
-				try {
-					connection = DriverManager.getConnection(prop.getProperty(DB_URL), 
-															prop.getProperty(DB_USER), 
-															prop.getProperty(DB_PASSWORD));
-					
-					usingConnPool.add(connection);
-				} catch (SQLException e) {
-					log.error("Error when construct the db connection.", e);
-					throw new RuntimeException("Error when construct the db connection.", e);
+		Set<String> cacheableTables = new HashSet<String>();
+		if(!CommonUtil.isEmpty(tables)) {
+			for(String table : tables.split("\\,")) {
+				if(table.trim().length() > 0) {
+					cacheableTables.add(table.trim());
 				}
 			}
 		}
 		
-		if(connection == null) {
-			synchronized (connPool) {
-				try {
-					connPool.wait(1000);
-				} catch (InterruptedException e) {
-					log.error("error while wait for the connection.", e);
+		queryCache = new QueryCache(capacity, ttl, cacheableTables);
+	}
+	
+	/**
+	 * schedule the pool housekeeping (validate idle connections, evict expired ones and keep the min idle connections) 
+	 * in the background thread, the period is specified by jdbc.housekeepingPeriod (milliseconds), 0 to disable it.
+	 * 
+	 * @param pool
+	 * @param poolProp
+	 */
+	protected void startHousekeeping(final ConnectionPool pool, Properties poolProp) {
+		
+		long period = CommonUtil.parseAsLong(poolProp.getProperty(DB_HOUSEKEEPING_PERIOD), TimeUtil.SEC_30);
+		
+		if(period > 0) {
+			scheduleTask(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						pool.housekeep();
+					} catch (Throwable e) {
+						log.error("error while housekeeping the connection pool: " + pool, e);
+					}
 				}
+			}, period);
+		}
+	}
+	
+	/**
+	 * run the task periodically in the shared background housekeeping thread, the task must not block long.
+	 * 
+	 * @param task
+	 * @param period milliseconds
+	 */
+	protected void scheduleTask(Runnable task, long period) {
+		getHousekeeper().scheduleWithFixedDelay(task, 0, period, TimeUnit.MILLISECONDS);
+	}
+	
+	private static ScheduledExecutorService getHousekeeper() {
+		ScheduledExecutorService executor = housekeeper;
+		if(executor != null) {
+			return executor;
+		}
+		
+		// no monitor is taken in DBFactory, the virtual threads are never pinned to the carrier thread
+		housekeeperLock.lock();
+		try {
+			if(housekeeper == null) {
+				housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "db-pool-housekeeper");
+						t.setDaemon(true);
+						return t;
+					}
+				});
 			}
 			
-			return getConnection();
+			return housekeeper;
+		} finally {
+			housekeeperLock.unlock();
 		}
-			
-		return connection;
+	}
+	
+	public ConnectionPool getConnectionPool() {
+		return connPool;
+	}
+	
+	/**
+	 * the max connection count can be retrieved from the factory.
+	 * 
+	 * @return
+	 */
+	public int getMaxPoolSize() {
+		return connPool == null ? 10 : connPool.getMaxPoolSize();
+	}
+	
+	/**
+	 * prepare the statement with the connection, the statement is reused from the connection 
+	 * statement cache if jdbc.statementCacheSize is set, close it by close(ps) before closing the connection.
+	 * 
+	 * @param conn
+	 * @param sql
+	 * @return
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+		return prepareStatement(conn, sql, Statement.NO_GENERATED_KEYS);
+	}
+	
+	public PreparedStatement prepareStatement(Connection conn, String sql, int autoGeneratedKeys) throws SQLException {
+		PreparedStatement ps = null;
+		
+		if(connPool != null) {
+			ps = connPool.prepareStatement(conn, sql, autoGeneratedKeys);
+		}
+		
+		if(ps == null) {
+			ps = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? conn.prepareStatement(sql, autoGeneratedKeys) : conn.prepareStatement(sql);
+		}
+		
+		return ps;
+	}
+	
+	/**
+	 * get the connection for the read only query, the cluster factory may route it to the read replica node.
+	 * 
+	 * @return
+	 */
+	public Connection getReadConnection() {
+		return getConnection();
 	}
 	
 	public int getQueryTimeout() {
 		return CommonUtil.parseAsInt(prop.getProperty(DB_QUERY_TIMEOUT), -1);
 	}
 	
+	public int getFetchSize() {
+		return CommonUtil.parseAsInt(prop.getProperty(DB_FETCH_SIZE), 0);
+	}
+	
+	/**
+	 * the metrics sink, null if jdbc.metrics is not enabled.
+	 * 
+	 * @return
+	 */
+	public MetricsSink getMetricsSink() {
+		return metricsSink;
+	}
+	
+	/**
+	 * the milliseconds over which the statement is logged as slow query, -1 if disabled.
+	 * 
+	 * @return
+	 */
+	public long getSlowQueryThreshold() {
+		return slowQueryThreshold;
+	}
+	
+	/**
+	 * rewrite the single row insert of bulkSave into the multi rows insert, see MultiRowInsert.
+	 * 
+	 * @return
+	 */
+	public boolean isBulkInsertRewrite() {
+		return bulkInsertRewrite;
+	}
+	
+	/**
+	 * the max rows per rewritten insert statement.
+	 * 
+	 * @return
+	 */
+	public int getBulkInsertChunkSize() {
+		return bulkInsertChunkSize;
+	}
+	
+	/**
+	 * the max bind parameters per statement, jdbc.maxStatementParams or the known limit of the database product.
+	 * 
+	 * @param conn
+	 * @return 0 if the database does not support the multi rows insert
+	 */
+	public int getMaxStatementParams(Connection conn) {
+		int maxParams = maxStatementParams;
+		
+		if(maxParams == 0) {
+			String product = "";
+			try {
+				product = String.valueOf(conn.getMetaData().getDatabaseProductName()).toLowerCase();
+			} catch (SQLException e) {
+				log.warn("Error while detecting the database product, use the default parameter limit.", e);
+			}
+			
+			if(product.contains("oracle")) {
+				// no multi rows VALUES, bulkSave keeps the jdbc batch
+				maxParams = -1;
+				log.info("The multi rows insert is not supported by the database: " + product + ", the bulk insert is not rewritten.");
+			} else if(product.contains("mysql") || product.contains("mariadb")) {
+				maxParams = 65535;
+			} else if(product.contains("postgres") || product.contains("db2")) {
+				maxParams = 32767;
+			} else if(product.contains("sqlite")) {
+				maxParams = 999;
+			} else {
+				// sql server limits 2100, conservative for the unknown ones
+				maxParams = 2000;
+			}
+			
+			maxStatementParams = maxParams;
+		}
+		
+		return Math.max(0, maxParams);
+	}
+	
+	/**
+	 * the query result cache, null if jdbc.queryCacheSize is not set.
+	 * 
+	 * @return
+	 */
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+	
 	public void close(Object o){
 		if(o != null){
 			
 			if(o instanceof Connection){
 				
-				TransactionOwner to = toHolder.get();
-				if(to != null && !to.closeable()) {
+				if(o == getTransactionConnection()) {
+					// closed while the transaction ends
 					return ;
 				}
 				
-				synchronized (connPool) {
-					connPool.add((Connection)o);
-					usingConnPool.remove(o);
-					
-					connPool.notify();
+				if(!connPool.returnConnection((Connection)o)) {
+					log.warn("Close the connection which is not retrieved from the pool: " + o);
+					try {
+						((Connection) o).close();
+					} catch (SQLException e) {
+						log.error("Error while closing the connection resource.", e);
+					}
 				}
 			}else if(o instanceof PreparedStatement){
+				if(connPool != null && connPool.releaseStatement((PreparedStatement) o)) {
+					return ;
+				}
+				
 				try {
 					((PreparedStatement) o).close();
 				} catch (SQLException e) {
@@ -278,118 +546,240 @@ public abstract class DBFactory {
 	}
 
 	public void beginTransaction() {
+		beginTransaction(Propagation.REQUIRED);
+	}
+	
+	/**
+	 * begin the transaction scope of the current thread, end it by endTransaction() or rollback().
+	 * 
+	 * REQUIRED and NESTED reuse the connection of the current transaction, REQUIRES_NEW retrieves another connection.
+	 * 
+	 * @param propagation
+	 */
+	public void beginTransaction(Propagation propagation) {
+		
+		// keep the batched writes of the thread ahead of the transaction
+		WriteBatcher.flushCurrentThread();
 		
+		failedEndHolder.remove();
 		
 		TransactionOwner to = toHolder.get();
+		boolean active = to != null && to.isActive();
 		
-		if(to == null) {
-			Connection conn = retrieveConnection();
-			try {
-				conn.setAutoCommit(false);
-			} catch (SQLException e) {
-				log.error("fail to set connection auto commit as false.", e);
-				throw new RuntimeException("Begin transaction error: fail to set connection auto commit as false.", e);
-			}
-			
-			to = new TransactionOwner(conn);
-			
-			toHolder.set(to);
-		} else {
-			to.increaseDeep();
+		switch(propagation) {
+			case SUPPORTS:
+				if(to == null) {
+					to = new TransactionOwner(null, null);
+					toHolder.set(to);
+				}
+				
+				to.pushScope(false, null);
+				return;
+			case REQUIRED:
+				if(active) {
+					to.pushScope(false, null);
+					return;
+				}
+				break;
+			case NESTED:
+				if(active) {
+					try {
+						to.pushScope(false, to.connection.setSavepoint());
+					} catch (SQLException e) {
+						log.error("fail to set the savepoint for the nested transaction.", e);
+						throw new RuntimeException("Begin transaction error: fail to set the savepoint.", e);
+					}
+					return;
+				}
+				break;
+			default:
+				// REQUIRES_NEW
+				break;
+		}
+		
+		Connection conn = retrieveTransactionConnection();
+		try {
+			conn.setAutoCommit(false);
+		} catch (SQLException e) {
+			log.error("fail to set connection auto commit as false.", e);
+			close(conn);
+			throw new RuntimeException("Begin transaction error: fail to set connection auto commit as false.", e);
 		}
 		
+		// the current transaction (if any) is suspended until the new one ends
+		TransactionOwner newTo = new TransactionOwner(conn, to);
+		newTo.pushScope(true, null);
 		
+		toHolder.set(newTo);
+	}
+	
+	/**
+	 * retrieve the connection for the new transaction.
+	 * 
+	 * @return
+	 */
+	protected Connection retrieveTransactionConnection() {
+		return retrieveConnection();
 	}
 
+	/**
+	 * end the current transaction scope, the root scope commits the transaction, or rolls back it if an inner scope
+	 * rolled back (RollbackOnlyException thrown).
+	 * 
+	 * the scope is ended even if the exception thrown, the following rollback() is ignored.
+	 */
 	public void endTransaction() {
 		
+		failedEndHolder.remove();
+		
 		TransactionOwner to = toHolder.get();
 		
-		if(to.decressDeep()) {
-			Connection conn = to.connection;
-			
+		if(to == null) {
+			throw new RuntimeException("End transaction error: no transaction begun.");
+		}
+		
+		TransactionOwner.Scope scope = to.popScope();
+		
+		if(scope.savepoint != null) {
 			try {
-				conn.commit();
+				to.connection.releaseSavepoint(scope.savepoint);
 			} catch (SQLException e) {
-				log.error("Fail to commit the transaction, auto rollback.", e);
-				
-				try {
-					conn.rollback();
-				} catch (SQLException e1) {
-					log.error("Fail to rollback the transaction.", e1);
-					throw new RuntimeException("End transaction error: fail to rollback the transaction.", e1);
-				}
+				// not supported by some drivers, released while the transaction ends
+				log.debug("fail to release the savepoint: " + e.getMessage());
 			}
+			return;
+		}
+		
+		if(!scope.root) {
+			if(!to.isActive() && !to.hasScope()) {
+				resume(to);
+			}
+			return;
+		}
+		
+		Connection conn = to.connection;
+		boolean rollbackOnly = to.rollbackOnly;
+		
+		try {
+			if(rollbackOnly) {
+				conn.rollback();
+			} else {
+				conn.commit();
+			}
+		} catch (SQLException e) {
+			log.error("Fail to commit the transaction, auto rollback.", e);
 			
+			try {
+				conn.rollback();
+			} catch (SQLException e1) {
+				log.error("Fail to rollback the transaction.", e1);
+				failedEndHolder.set(Boolean.TRUE);
+				throw new RuntimeException("End transaction error: fail to rollback the transaction.", e1);
+			}
+		} finally {
 			try {
 				conn.setAutoCommit(true);
 			} catch (SQLException e) {
 				log.error("fail to set connection auto commit as true after the transacation.", e);
-				throw new RuntimeException("end transaction error: fail to set connection auto commit as true.", e);
 			}
 			
+			resume(to);
 			close(conn);
 			
-			toHolder.remove();
+			if(queryCache != null) {
+				queryCache.transactionEnded();
+			}
+		}
+		
+		if(rollbackOnly) {
+			failedEndHolder.set(Boolean.TRUE);
+			throw new RollbackOnlyException("End transaction error: the transaction is rolled back since the inner transaction scope rolled back.");
 		}
 	}
 
+	/**
+	 * rollback the current transaction scope: the savepoint of NESTED, or the whole transaction of the root scope 
+	 * (the joined scope only marks the transaction as rollback only, which is rolled back while the root scope ends).
+	 * 
+	 * ignored right after endTransaction() threw the exception, its scope is ended already.
+	 */
 	public void rollback() {
 		
+		if(failedEndHolder.get() != null) {
+			failedEndHolder.remove();
+			return;
+		}
+		
 		TransactionOwner to = toHolder.get();
 		
-		if(to != null) {
+		if(to == null) {
+			return;
+		}
+		
+		TransactionOwner.Scope scope = to.popScope();
+		
+		if(scope.savepoint != null) {
 			try {
-				to.connection.rollback();
+				to.connection.rollback(scope.savepoint);
 			} catch (SQLException e) {
-				log.error("Fail to rollback the transaction.", e);
+				log.error("Fail to rollback the nested transaction to the savepoint.", e);
 				throw new RuntimeException("Transaction rollback error.", e);
-			} finally {
-				try {
-					to.connection.setAutoCommit(true);
-				} catch (SQLException e) {
-					log.error("fail to set connection auto commit as true after the transacation.", e);
-					throw new RuntimeException("end transaction error: fail to set connection auto commit as true.", e);
-				}
+			}
+			return;
+		}
+		
+		if(!scope.root) {
+			if(to.isActive()) {
+				// rolled back by the root scope while it ends
+				to.rollbackOnly = true;
+			} else if(!to.hasScope()) {
+				resume(to);
+			}
+			return;
+		}
+		
+		try {
+			to.connection.rollback();
+		} catch (SQLException e) {
+			log.error("Fail to rollback the transaction.", e);
+			throw new RuntimeException("Transaction rollback error.", e);
+		} finally {
+			try {
+				to.connection.setAutoCommit(true);
+			} catch (SQLException e) {
+				log.error("fail to set connection auto commit as true after the transacation.", e);
 			}
 			
-			to.deep = 0;
-			
+			resume(to);
 			close(to.connection);
+			
+			if(queryCache != null) {
+				queryCache.transactionEnded();
+			}
+		}
+	}
+	
+	// restore the suspended transaction after the transaction ended
+	private void resume(TransactionOwner to) {
+		if(to.suspended != null) {
+			toHolder.set(to.suspended);
+		} else {
 			toHolder.remove();
 		}
 	}
 	
 	public boolean isTransactional() {
-		return toHolder.get() != null;
+		TransactionOwner to = toHolder.get();
+		return to != null && to.isActive();
 	}
 	
-	private class TransactionOwner {
-		Connection connection;
-		int deep;
-		
-		TransactionOwner(Connection connection) {
-			this(connection, 1);
-		}
-
-
-
-		TransactionOwner(Connection connection, int deep) {
-			super();
-			this.connection = connection;
-			this.deep = deep;
-		}
-		
-		void increaseDeep() {
-			++ deep;
-		}
-		
-		boolean decressDeep() {
-			return --deep == 0;
-		}
-		
-		public boolean closeable () {
-			return deep == 0;
-		}
+	/**
+	 * the connection of the current transaction, null if none.
+	 * 
+	 * @return
+	 */
+	protected Connection getTransactionConnection() {
+		TransactionOwner to = toHolder.get();
+		return to == null ? null : to.connection;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,406 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The in-process metrics registry (the default MetricsSink), records the connection acquire latency 
+ * and saturation of each pool, and the execution time and rows of each sql.
+ * 
+ * the distinct sql count is bounded by maxStatements, the exceeded ones are aggregated as OTHER_STATEMENTS.
+ * 
+ * call enableJmx() to expose the pools (com.mnt.base.das:type=ConnectionPool,name=&lt;pool&gt;) 
+ * and the statements (com.mnt.base.das:type=Statements) as MBeans.
+ *
+ */
+public class DBMetrics implements MetricsSink {
+	
+	private static Log log = LogFactory.getLog(DBMetrics.class);
+	
+	public static final String OTHER_STATEMENTS = "<other statements>";
+	
+	static final String JMX_DOMAIN = "com.mnt.base.das";
+	
+	private static final DBMetrics instance = new DBMetrics(1000);
+	
+	private final int maxStatements;
+	private final Map<String, PoolStats> pools = new ConcurrentHashMap<String, PoolStats>();
+	private final Map<String, StatementStats> statements = new ConcurrentHashMap<String, StatementStats>();
+	
+	private final AtomicBoolean jmxEnabled = new AtomicBoolean();
+	
+	public DBMetrics(int maxStatements) {
+		this.maxStatements = maxStatements;
+	}
+	
+	/**
+	 * the shared registry used by jdbc.metrics=true.
+	 * 
+	 * @return
+	 */
+	public static DBMetrics getInstance() {
+		return instance;
+	}
+	
+	@Override
+	public void registerPool(String poolName, ConnectionPool pool) {
+		PoolStats stats = poolStats(poolName);
+		stats.pool = pool;
+		
+		if(jmxEnabled.get()) {
+			registerMBean(poolObjectName(poolName), stats, PoolMBean.class);
+		}
+	}
+	
+	@Override
+	public void recordAcquire(String poolName, long latencyNanos, boolean failed) {
+		PoolStats stats = poolStats(poolName);
+		
+		if(failed) {
+			stats.failures.increment();
+		} else {
+			stats.acquireLatency.record(latencyNanos);
+		}
+	}
+
+	@Override
+	public void recordStatement(String sql, long latencyNanos, int rows) {
+		StatementStats stats = statements.get(sql);
+		
+		if(stats == null) {
+			// racy size check, the bound is approximate
+			String key = statements.size() < maxStatements ? sql : OTHER_STATEMENTS;
+			stats = statements.computeIfAbsent(key, new Function<String, StatementStats>() {
+				@Override
+				public StatementStats apply(String k) {
+					return new StatementStats(k);
+				}
+			});
+		}
+		
+		stats.latency.record(latencyNanos);
+		
+		if(rows < 0) {
+			stats.failures.increment();
+		} else {
+			stats.rows.add(rows);
+		}
+	}
+	
+	private PoolStats poolStats(String poolName) {
+		return pools.computeIfAbsent(poolName, new Function<String, PoolStats>() {
+			@Override
+			public PoolStats apply(String k) {
+				return new PoolStats(k);
+			}
+		});
+	}
+	
+	/**
+	 * the snapshot of the pool statistics.
+	 * 
+	 * @return
+	 */
+	public List<PoolStats> getPoolStats() {
+		return new ArrayList<PoolStats>(pools.values());
+	}
+	
+	public PoolStats getPoolStats(String poolName) {
+		return pools.get(poolName);
+	}
+	
+	/**
+	 * the snapshot of the statement statistics, sorted by the total execution time desc.
+	 * 
+	 * @return
+	 */
+	public List<StatementStats> getStatementStats() {
+		List<StatementStats> list = new ArrayList<StatementStats>(statements.values());
+		Collections.sort(list, new Comparator<StatementStats>() {
+			@Override
+			public int compare(StatementStats o1, StatementStats o2) {
+				return Long.compare(o2.latency.getTotalNanos(), o1.latency.getTotalNanos());
+			}
+		});
+		
+		return list;
+	}
+	
+	public StatementStats getStatementStats(String sql) {
+		return statements.get(sql);
+	}
+	
+	public void reset() {
+		for(PoolStats stats : pools.values()) {
+			stats.acquireLatency.reset();
+			stats.failures.reset();
+		}
+		
+		statements.clear();
+	}
+	
+	/**
+	 * register the MBeans to the platform MBean server, the pools registered later are exposed as well.
+	 */
+	public void enableJmx() {
+		if(!jmxEnabled.compareAndSet(false, true)) {
+			return;
+		}
+		
+		registerMBean(JMX_DOMAIN + ":type=Statements", new StatementsView(), StatementsMBean.class);
+		
+		for(PoolStats stats : pools.values()) {
+			registerMBean(poolObjectName(stats.poolName), stats, PoolMBean.class);
+		}
+	}
+	
+	private String poolObjectName(String poolName) {
+		return JMX_DOMAIN + ":type=ConnectionPool,name=" + ObjectName.quote(poolName);
+	}
+	
+	static <T> void registerMBean(String name, T mbean, Class<T> mbeanInterface) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			
+			if(!server.isRegistered(objectName)) {
+				server.registerMBean(new StandardMBean(mbean, mbeanInterface), objectName);
+			}
+		} catch (Exception e) {
+			log.warn("Error while registering the db MBean: " + name, e);
+		}
+	}
+	
+	public interface PoolMBean {
+		String getPoolName();
+		int getMaxPoolSize();
+		int getActiveCount();
+		int getIdleCount();
+		int getWaitingCount();
+		/**
+		 * active / max pool size
+		 */
+		double getSaturation();
+		long getAcquireCount();
+		long getAcquireFailures();
+		double getAcquireMeanMillis();
+		double getAcquireP50Millis();
+		double getAcquireP99Millis();
+		double getAcquireMaxMillis();
+	}
+	
+	public interface StatementsMBean {
+		int getStatementCount();
+		long getExecutionCount();
+		long getFailureCount();
+		/**
+		 * the statements with the most total execution time.
+		 */
+		String[] getTopStatements();
+		void reset();
+	}
+	
+	public static class PoolStats implements PoolMBean {
+		
+		private final String poolName;
+		private volatile ConnectionPool pool;
+		private final LatencyHistogram acquireLatency = new LatencyHistogram();
+		private final LongAdder failures = new LongAdder();
+		
+		PoolStats(String poolName) {
+			this.poolName = poolName;
+		}
+
+		@Override
+		public String getPoolName() {
+			return poolName;
+		}
+
+		@Override
+		public int getMaxPoolSize() {
+			ConnectionPool p = pool;
+			return p == null ? 0 : p.getMaxPoolSize();
+		}
+
+		@Override
+		public int getActiveCount() {
+			ConnectionPool p = pool;
+			return p == null ? 0 : p.getActiveCount();
+		}
+
+		@Override
+		public int getIdleCount() {
+			ConnectionPool p = pool;
+			return p == null ? 0 : p.getIdleCount();
+		}
+
+		@Override
+		public int getWaitingCount() {
+			ConnectionPool p = pool;
+			return p == null ? 0 : p.getWaitingCount();
+		}
+
+		@Override
+		public double getSaturation() {
+			int max = getMaxPoolSize();
+			return max == 0 ? 0 : (double) getActiveCount() / max;
+		}
+
+		@Override
+		public long getAcquireCount() {
+			return acquireLatency.getCount();
+		}
+
+		@Override
+		public long getAcquireFailures() {
+			return failures.sum();
+		}
+
+		@Override
+		public double getAcquireMeanMillis() {
+			return acquireLatency.getMeanMillis();
+		}
+
+		@Override
+		public double getAcquireP50Millis() {
+			return acquireLatency.getPercentileMillis(0.5);
+		}
+
+		@Override
+		public double getAcquireP99Millis() {
+			return acquireLatency.getPercentileMillis(0.99);
+		}
+
+		@Override
+		public double getAcquireMaxMillis() {
+			return acquireLatency.getMaxNanos() / 1000000d;
+		}
+		
+		public LatencyHistogram getAcquireLatency() {
+			return acquireLatency;
+		}
+
+		@Override
+		public String toString() {
+			return "PoolStats [poolName=" + poolName + ", active=" + getActiveCount() + ", idle=" + getIdleCount()
+					+ ", waiting=" + getWaitingCount() + ", saturation=" + getSaturation()
+					+ ", acquireFailures=" + failures.sum() + ", acquireLatency=" + acquireLatency + "]";
+		}
+	}
+	
+	public static class StatementStats {
+		
+		private final String sql;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder rows = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		
+		StatementStats(String sql) {
+			this.sql = sql;
+		}
+		
+		public String getSql() {
+			return sql;
+		}
+		
+		public long getCount() {
+			return latency.getCount();
+		}
+		
+		public long getFailures() {
+			return failures.sum();
+		}
+		
+		public long getRows() {
+			return rows.sum();
+		}
+		
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		@Override
+		public String toString() {
+			return "StatementStats [count=" + getCount() + ", failures=" + failures.sum() + ", rows=" + rows.sum()
+					+ ", totalMs=" + latency.getTotalNanos() / 1000000d + ", meanMs=" + latency.getMeanMillis()
+					+ ", p99Ms=" + latency.getPercentileMillis(0.99) + ", maxMs=" + latency.getMaxNanos() / 1000000d
+					+ ", sql=" + sql + "]";
+		}
+	}
+	
+	private class StatementsView implements StatementsMBean {
+
+		@Override
+		public int getStatementCount() {
+			return statements.size();
+		}
+
+		@Override
+		public long getExecutionCount() {
+			long count = 0;
+			for(StatementStats stats : statements.values()) {
+				count += stats.getCount();
+			}
+			return count;
+		}
+
+		@Override
+		public long getFailureCount() {
+			long count = 0;
+			for(StatementStats stats : statements.values()) {
+				count += stats.getFailures();
+			}
+			return count;
+		}
+
+		@Override
+		public String[] getTopStatements() {
+			List<StatementStats> list = getStatementStats();
+			String[] top = new String[Math.min(20, list.size())];
+			for(int i = 0; i < top.length; i++) {
+				top[i] = list.get(i).toString();
+			}
+			return top;
+		}
+
+		@Override
+		public void reset() {
+			DBMetrics.this.reset();
+		}
+	}
+}
@@ -27,17 +27,11 @@ public abstract class DataSourceFactory extends DBFactory {
 
 	private static Log log = LogFactory.getLog(DBFactory.class);
 	
-	private static ThreadLocal<TransactionOwner> toHolder = new ThreadLocal<TransactionOwner>();
-	
 	public Connection getConnection(){
 		
-		Connection conn;
-		
-		TransactionOwner to = toHolder.get();
+		Connection conn = getTransactionConnection();
 		
-		if(to != null) {
-			conn = to.connection;
-		} else {
+		if(conn == null) {
 			conn = retrieveConnection();
 		}
 		
@@ -62,8 +56,8 @@ public abstract class DataSourceFactory extends DBFactory {
 			
 			if(o instanceof Connection){
 				
-				TransactionOwner to = toHolder.get();
-				if(to != null && !to.closeable()) {
+				if(o == getTransactionConnection()) {
+					// closed while the transaction ends
 					return ;
 				}
 				
@@ -101,120 +95,9 @@ public abstract class DataSourceFactory extends DBFactory {
 		}
 	}
 
-	public void beginTransaction() {
-		
-		
-		TransactionOwner to = toHolder.get();
-		
-		if(to == null) {
-			Connection conn = retrieveConnection();
-			try {
-				conn.setAutoCommit(false);
-			} catch (SQLException e) {
-				log.error("fail to set connection auto commit as false.", e);
-				throw new RuntimeException("Begin transaction error: fail to set connection auto commit as false.", e);
-			}
-			
-			to = new TransactionOwner(conn);
-			
-			toHolder.set(to);
-		} else {
-			to.increaseDeep();
-		}
-		
-		
-	}
-
-	public void endTransaction() {
-		
-		TransactionOwner to = toHolder.get();
-		
-		if(to.decressDeep()) {
-			Connection conn = to.connection;
-			
-			try {
-				conn.commit();
-			} catch (SQLException e) {
-				log.error("Fail to commit the transaction, auto rollback.", e);
-				
-				try {
-					conn.rollback();
-				} catch (SQLException e1) {
-					log.error("Fail to rollback the transaction.", e1);
-					throw new RuntimeException("End transaction error: fail to rollback the transaction.", e1);
-				}
-			}
-			
-			try {
-				conn.setAutoCommit(true);
-			} catch (SQLException e) {
-				log.error("fail to set connection auto commit as true after the transacation.", e);
-				throw new RuntimeException("end transaction error: fail to set connection auto commit as true.", e);
-			}
-			
-			close(conn);
-			
-			toHolder.remove();
-		}
-	}
-
-	public void rollback() {
-		
-		TransactionOwner to = toHolder.get();
-		
-		if(to != null) {
-			try {
-				to.connection.rollback();
-			} catch (SQLException e) {
-				log.error("Fail to rollback the transaction.", e);
-				throw new RuntimeException("Transaction rollback error.", e);
-			} finally {
-				try {
-					to.connection.setAutoCommit(true);
-				} catch (SQLException e) {
-					log.error("fail to set connection auto commit as true after the transacation.", e);
-					throw new RuntimeException("end transaction error: fail to set connection auto commit as true.", e);
-				}
-			}
-			
-			to.deep = 0;
-			
-			close(to.connection);
-			toHolder.remove();
-		}
-	}
-	
-	public boolean isTransactional() {
-		return toHolder.get() != null;
-	}
-	
-	private class TransactionOwner {
-		Connection connection;
-		int deep;
-		
-		TransactionOwner(Connection connection) {
-			this(connection, 1);
-		}
-
-
-
-		TransactionOwner(Connection connection, int deep) {
-			super();
-			this.connection = connection;
-			this.deep = deep;
-		}
-		
-		void increaseDeep() {
-			++ deep;
-		}
-		
-		boolean decressDeep() {
-			return --deep == 0;
-		}
-		
-		public boolean closeable () {
-			return deep == 0;
-		}
+	@Override
+	protected Connection retrieveTransactionConnection() {
+		return retrieveConnection();
 	}
 
 	public DataSource getDataSource() {
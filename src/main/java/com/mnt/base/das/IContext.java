@@ -99,6 +99,84 @@ public interface IContext {
 	 */
 	List<Map<String, Object>> query(String sql, List<Object> params);
 	
+	/**
+	 * query data with sql and params, the result keys refer to the table metadata.
+	 * 
+	 * the column names are shared by all the records and the values are kept in one flat array,
+	 * each record is exposed as read only map view, it takes much less memory than query(sql, params) for large result.
+	 * 
+	 * (support only for rdb context), while invoked in other context, it throw the UnsupportedOperationException
+	 * 
+	 * @param sql
+	 * @param params
+	 * @return
+	 */
+	default CompactResult queryCompact(String sql, List<Object> params) {
+		throw new UnsupportedOperationException("queryCompact is not supported by " + getClass().getName());
+	}
+	
+	/**
+	 * query data with sql and params, each record is mapped to the bean of the class.
+	 * 
+	 * the columns are matched to the bean properties by label (exactly, or ignoring the case and the underscores),
+	 * the mapping is resolved once and cached per class, the records are read by column index with the primitive getters.
+	 * the bean class requires the no argument constructor.
+	 * 
+	 * (support only for rdb context), while invoked in other context, it throw the UnsupportedOperationException
+	 * 
+	 * @param sql
+	 * @param params
+	 * @param beanClass
+	 * @return
+	 */
+	default <T> List<T> query(String sql, List<Object> params, Class<T> beanClass) {
+		throw new UnsupportedOperationException("bean query is not supported by " + getClass().getName());
+	}
+	
+	/**
+	 * query data with sql and params, stream the records to the row handler one by one instead of holding 
+	 * all the records in memory, the resources are closed after the last record or the handler stops.
+	 * 
+	 * the default fetch size (jdbc.fetchSize) is applied.
+	 * 
+	 * @param sql
+	 * @param params
+	 * @param rowHandler
+	 * @return the handled record count
+	 */
+	default int query(String sql, List<Object> params, RowHandler rowHandler) {
+		return query(sql, params, 0, rowHandler);
+	}
+	
+	/**
+	 * query data with sql and params, stream the records to the row handler one by one with the specified jdbc fetch size.
+	 * 
+	 * e.g. mysql streams the result with fetch size Integer.MIN_VALUE, 
+	 * postgresql uses the cursor only while the fetch size is over zero and in transaction.
+	 * 
+	 * the default implementation loads all the records by query(sql, params) and ignores the fetch size, 
+	 * the context supporting the streaming overrides it.
+	 * 
+	 * @param sql
+	 * @param params
+	 * @param fetchSize 0 to use the driver default
+	 * @param rowHandler
+	 * @return the handled record count
+	 */
+	default int query(String sql, List<Object> params, int fetchSize, RowHandler rowHandler) {
+		int count = 0;
+		
+		for(Map<String, Object> row : query(sql, params)) {
+			count++;
+			
+			if(!rowHandler.handleRow(row)) {
+				break;
+			}
+		}
+		
+		return count;
+	}
+	
 	/**
 	 * get the record with sql and params, it return the first record if exists. (if there is more than one record returns from db, just ignore the rest records)
 	 * 
@@ -0,0 +1,125 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Lock free latency histogram with the power of 2 nanoseconds buckets, the percentile is reported 
+ * as the upper bound of the bucket (at most 2 times of the real value).
+ *
+ */
+public class LatencyHistogram {
+	
+	// 2^40 ns ~ 18 minutes, the longer ones fall in the last bucket
+	private static final int BUCKETS = 41;
+	
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(new LongBinaryOperator() {
+		@Override
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	}, 0);
+	
+	public LatencyHistogram() {
+		for(int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+	
+	public void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0;
+		}
+		
+		buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+	
+	public long getCount() {
+		return count.sum();
+	}
+	
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+	
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+	
+	public double getMeanMillis() {
+		long c = count.sum();
+		return c == 0 ? 0 : totalNanos.sum() / 1000000d / c;
+	}
+	
+	/**
+	 * 
+	 * @param percentile e.g. 0.99
+	 * @return the upper bound milliseconds of the bucket containing the percentile
+	 */
+	public double getPercentileMillis(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+		
+		if(total == 0) {
+			return 0;
+		}
+		
+		long rank = (long) Math.ceil(total * percentile);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min((1L << i), maxNanos.get()) / 1000000d;
+			}
+		}
+		
+		return maxNanos.get() / 1000000d;
+	}
+	
+	public void reset() {
+		for(LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		count.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram [count=" + getCount() + ", meanMs=" + getMeanMillis()
+				+ ", p50Ms=" + getPercentileMillis(0.5) + ", p99Ms=" + getPercentileMillis(0.99)
+				+ ", maxMs=" + getMaxNanos() / 1000000d + "]";
+	}
+}
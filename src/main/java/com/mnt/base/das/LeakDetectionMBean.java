@@ -0,0 +1,45 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+/**
+ * The JMX view of the connection leak detection of the pool (com.mnt.base.das:type=ConnectionLeaks,name=&lt;pool&gt;),
+ * registered by DBFactory.newConnectionPool(...) when jdbc.leakDetectionThreshold is set.
+ *
+ */
+public interface LeakDetectionMBean {
+	String getPoolName();
+	long getLeakDetectionThreshold();
+	/**
+	 * the connections reported as leaked since the pool started.
+	 */
+	long getLeakCount();
+	long getReclaimedCount();
+	/**
+	 * the connections currently held over the threshold.
+	 */
+	int getSuspectedLeakCount();
+	String[] getSuspectedLeaks();
+	/**
+	 * log the suspected leaks with their borrow stacks.
+	 */
+	void dumpLeaks();
+}
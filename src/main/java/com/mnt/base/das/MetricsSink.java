@@ -0,0 +1,57 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+/**
+ * Receive the jdbc instrumentation of the connection pools and DBContext, configured by jdbc.metrics 
+ * (true for the in-process registry DBMetrics, or the class name of the customized sink).
+ * 
+ * the methods are invoked in the jdbc calling threads, the implementation must be thread safe and must not block.
+ *
+ */
+public interface MetricsSink {
+	
+	/**
+	 * register the pool to sample the active/idle/waiting counts.
+	 * 
+	 * @param poolName
+	 * @param pool
+	 */
+	void registerPool(String poolName, ConnectionPool pool);
+
+	/**
+	 * record one connection borrowing from the pool.
+	 * 
+	 * @param poolName
+	 * @param latencyNanos the time waited for the connection
+	 * @param failed true if timeout or failed to create the connection
+	 */
+	void recordAcquire(String poolName, long latencyNanos, boolean failed);
+	
+	/**
+	 * record one statement executed by DBContext.
+	 * 
+	 * @param sql
+	 * @param latencyNanos the time from executing the statement to reading the last record
+	 * @param rows the records returned or updated, -1 if failed
+	 */
+	void recordStatement(String sql, long latencyNanos, int rows);
+}
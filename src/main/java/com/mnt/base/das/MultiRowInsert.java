@@ -0,0 +1,252 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Rewrite the single row insert (INSERT/REPLACE INTO t (...) VALUES (?, ...) [tail]) into the multi rows 
+ * insert (VALUES (?, ...), (?, ...) ...) for DBContext.bulkSave, the tail (e.g. ON DUPLICATE KEY UPDATE) is kept.
+ *
+ */
+public class MultiRowInsert {
+	
+	private static final int PARSED_CACHE_SIZE = 256;
+	
+	// marks the sql which can not be rewritten in the parsed cache
+	private static final MultiRowInsert NONE = new MultiRowInsert(null, null, null, 0);
+	
+	// the parsed inserts of the recent sqls, bulkSave is invoked with the same sqls repeatedly
+	private static final Map<String, MultiRowInsert> parsedCache = new LinkedHashMap<String, MultiRowInsert>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, MultiRowInsert> eldest) {
+			return size() > PARSED_CACHE_SIZE;
+		}
+	};
+	private static final ReentrantLock parsedLock = new ReentrantLock();
+	
+	private final String prefix;
+	private final String rowGroup;
+	private final String tail;
+	private final int paramsPerRow;
+	
+	// the last built sql, the full chunks share the same one
+	private volatile BuiltSql lastSql;
+	
+	private MultiRowInsert(String prefix, String rowGroup, String tail, int paramsPerRow) {
+		this.prefix = prefix;
+		this.rowGroup = rowGroup;
+		this.tail = tail;
+		this.paramsPerRow = paramsPerRow;
+	}
+	
+	/**
+	 * parse the sql, the result of the recent sqls are cached.
+	 * 
+	 * @param sql
+	 * @return null if the sql is not the single row insert with parameters
+	 */
+	public static MultiRowInsert parse(String sql) {
+		MultiRowInsert insert;
+		
+		parsedLock.lock();
+		try {
+			insert = parsedCache.get(sql);
+		} finally {
+			parsedLock.unlock();
+		}
+		
+		if(insert == null) {
+			insert = doParse(sql);
+			
+			if(insert == null) {
+				insert = NONE;
+			}
+			
+			parsedLock.lock();
+			try {
+				parsedCache.put(sql, insert);
+			} finally {
+				parsedLock.unlock();
+			}
+		}
+		
+		return insert == NONE ? null : insert;
+	}
+	
+	private static MultiRowInsert doParse(String sql) {
+		String head = sql.trim().toLowerCase(Locale.ENGLISH);
+		if(!head.startsWith("insert") && !head.startsWith("replace")) {
+			return null;
+		}
+		
+		int valuesIdx = indexOfValues(sql);
+		if(valuesIdx < 0) {
+			return null;
+		}
+		
+		int start = valuesIdx + 6;
+		while(start < sql.length() && Character.isWhitespace(sql.charAt(start))) {
+			start++;
+		}
+		
+		if(start >= sql.length() || sql.charAt(start) != '(') {
+			return null;
+		}
+		
+		int end = -1;
+		int depth = 0;
+		int params = 0;
+		char quote = 0;
+		char c;
+		for(int i = start; i < sql.length() && end < 0; i++) {
+			c = sql.charAt(i);
+			
+			if(quote != 0) {
+				if(c == quote) {
+					quote = 0;
+				}
+			} else if(c == '\'' || c == '"' || c == '`') {
+				quote = c;
+			} else if(c == '(') {
+				depth++;
+			} else if(c == ')') {
+				if(--depth == 0) {
+					end = i;
+				}
+			} else if(c == '?') {
+				params++;
+			}
+		}
+		
+		if(end < 0 || params == 0) {
+			return null;
+		}
+		
+		String tail = sql.substring(end + 1);
+		if(tail.trim().startsWith(",")) {
+			// already multi rows
+			return null;
+		}
+		
+		return new MultiRowInsert(sql.substring(0, start), sql.substring(start, end + 1), tail, params);
+	}
+	
+	// the VALUES keyword outside the quotes and parentheses
+	private static int indexOfValues(String sql) {
+		String lower = sql.toLowerCase(Locale.ENGLISH);
+		int depth = 0;
+		char quote = 0;
+		char c;
+		for(int i = 0; i < lower.length(); i++) {
+			c = lower.charAt(i);
+			
+			if(quote != 0) {
+				if(c == quote) {
+					quote = 0;
+				}
+			} else if(c == '\'' || c == '"' || c == '`') {
+				quote = c;
+			} else if(c == '(') {
+				depth++;
+			} else if(c == ')') {
+				depth--;
+			} else if(depth == 0 && c == 'v' && lower.startsWith("values", i)
+					&& (i == 0 || !Character.isLetterOrDigit(lower.charAt(i - 1)) && lower.charAt(i - 1) != '_')
+					&& (i + 6 == lower.length() || !Character.isLetterOrDigit(lower.charAt(i + 6)) && lower.charAt(i + 6) != '_')) {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	public int getParamsPerRow() {
+		return paramsPerRow;
+	}
+	
+	/**
+	 * check all the rows have exactly the parameters of the row group.
+	 * 
+	 * @param batchParams
+	 * @return
+	 */
+	public boolean accepts(List<List<Object>> batchParams) {
+		for(List<Object> params : batchParams) {
+			if(params == null || params.size() != paramsPerRow) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * the max rows per statement within the chunk size and the parameter limit.
+	 * 
+	 * @param chunkSize
+	 * @param maxParams
+	 * @return
+	 */
+	public int chunkRows(int chunkSize, int maxParams) {
+		return Math.max(1, Math.min(chunkSize, maxParams / paramsPerRow));
+	}
+	
+	/**
+	 * 
+	 * @param rows
+	 * @return the insert sql with the rows
+	 */
+	public String getSql(int rows) {
+		BuiltSql last = lastSql;
+		if(last != null && last.rows == rows) {
+			return last.sql;
+		}
+		
+		StringBuilder sb = new StringBuilder(prefix.length() + (rowGroup.length() + 2) * rows + tail.length());
+		sb.append(prefix).append(rowGroup);
+		for(int i = 1; i < rows; i++) {
+			sb.append(", ").append(rowGroup);
+		}
+		sb.append(tail);
+		
+		String sql = sb.toString();
+		lastSql = new BuiltSql(rows, sql);
+		
+		return sql;
+	}
+	
+	private static class BuiltSql {
+		final int rows;
+		final String sql;
+		
+		BuiltSql(int rows, String sql) {
+			this.rows = rows;
+			this.sql = sql;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Choose the cluster db node for retrieving the connection.
+ * 
+ * configured by cluster.jdbc.nodeSelector: 
+ * 
+ * sticky            - (default) each thread sticks to one node (round robin assigned) until it becomes unavailable.
+ * leastOutstanding  - the node with the least connections in use.
+ * ewma              - the node with the lowest (ewma latency * outstanding connections) score.
+ * weighted          - random node by the configured node weight (cluster.&lt;node&gt;.jdbc.weight).
+ * 
+ * or the class name of the customized NodeSelector.
+ *
+ */
+public abstract class NodeSelector {
+	
+	/**
+	 * select the node from the nodes, the unavailable nodes must be skipped.
+	 * 
+	 * @param nodes
+	 * @return the index of the selected node, -1 if no node available (including the empty nodes).
+	 */
+	public abstract int select(List<? extends ClusterNodeStats> nodes);
+	
+	public static NodeSelector getInstance(String name) {
+		
+		if(name == null || name.length() == 0 || "sticky".equalsIgnoreCase(name)) {
+			return new StickyNodeSelector();
+		} else if("leastOutstanding".equalsIgnoreCase(name)) {
+			return new LeastOutstandingNodeSelector();
+		} else if("ewma".equalsIgnoreCase(name)) {
+			return new EwmaNodeSelector();
+		} else if("weighted".equalsIgnoreCase(name)) {
+			return new WeightedNodeSelector();
+		}
+		
+		try {
+			return Class.forName(name).asSubclass(NodeSelector.class).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new RuntimeException("Invalid node selector: " + name, e);
+		}
+	}
+	
+	private static class StickyNodeSelector extends NodeSelector {
+		
+		private AtomicLong loopIdx = new AtomicLong();
+		private ThreadLocal<Integer> idxHolder = new ThreadLocal<Integer>();
+		
+		@Override
+		public int select(List<? extends ClusterNodeStats> nodes) {
+			int size = nodes.size();
+			if(size == 0) {
+				return -1;
+			}
+			
+			Integer idx = idxHolder.get();
+			
+			if(idx == null || idx >= size) {
+				idx = (int)(loopIdx.getAndIncrement() % size);
+			}
+			
+			for(int i = 0; i < size; i++) {
+				int nIdx = (idx + i) % size;
+				if(nodes.get(nIdx).available()) {
+					idxHolder.set(nIdx);
+					return nIdx;
+				}
+			}
+			
+			return -1;
+		}
+	}
+	
+	private static class LeastOutstandingNodeSelector extends NodeSelector {
+		
+		private AtomicLong loopIdx = new AtomicLong();
+		
+		@Override
+		public int select(List<? extends ClusterNodeStats> nodes) {
+			int size = nodes.size();
+			if(size == 0) {
+				return -1;
+			}
+			
+			// rotate the start node to spread the ties
+			int start = (int)(loopIdx.getAndIncrement() % size);
+			
+			int selected = -1;
+			int least = Integer.MAX_VALUE;
+			
+			ClusterNodeStats node;
+			for(int i = 0; i < size; i++) {
+				int nIdx = (start + i) % size;
+				node = nodes.get(nIdx);
+				
+				if(node.available() && node.getOutstanding() < least) {
+					least = node.getOutstanding();
+					selected = nIdx;
+				}
+			}
+			
+			return selected;
+		}
+	}
+	
+	private static class EwmaNodeSelector extends NodeSelector {
+		
+		private AtomicLong loopIdx = new AtomicLong();
+		
+		@Override
+		public int select(List<? extends ClusterNodeStats> nodes) {
+			int size = nodes.size();
+			if(size == 0) {
+				return -1;
+			}
+			
+			int start = (int)(loopIdx.getAndIncrement() % size);
+			
+			int selected = -1;
+			double lowest = Double.MAX_VALUE;
+			double score;
+			
+			ClusterNodeStats node;
+			for(int i = 0; i < size; i++) {
+				int nIdx = (start + i) % size;
+				node = nodes.get(nIdx);
+				
+				if(node.available()) {
+					// the new node (no latency yet) gets the traffic first
+					score = (node.getEwmaLatency() + 1) * (node.getOutstanding() + 1) / node.getWeight();
+					
+					if(score < lowest) {
+						lowest = score;
+						selected = nIdx;
+					}
+				}
+			}
+			
+			return selected;
+		}
+	}
+	
+	private static class WeightedNodeSelector extends NodeSelector {
+		
+		@Override
+		public int select(List<? extends ClusterNodeStats> nodes) {
+			int size = nodes.size();
+			int totalWeight = 0;
+			
+			for(int i = 0; i < size; i++) {
+				if(nodes.get(i).available()) {
+					totalWeight += nodes.get(i).getWeight();
+				}
+			}
+			
+			if(totalWeight <= 0) {
+				return -1;
+			}
+			
+			int r = ThreadLocalRandom.current().nextInt(totalWeight);
+			
+			ClusterNodeStats node;
+			for(int i = 0; i < size; i++) {
+				node = nodes.get(i);
+				if(node.available()) {
+					r -= node.getWeight();
+					if(r < 0) {
+						return i;
+					}
+				}
+			}
+			
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mnt.base.das;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * the slot entry of SlotConnectionPool, hold the physical connection and its state.
+ *
+ */
+class PooledConnection {
+
+	static final int STATE_IDLE    = 0;
+	static final int STATE_IN_USE  = 1;
+	static final int STATE_REMOVED = -1;
+	// closed as leaked while lent, never back to the other states
+	static final int STATE_RECLAIMED = -2;
+
+	// the borrowTs of the reclaimed lease
+	static final long RECLAIMED_TS = -1;
+
+	private static final AtomicLongFieldUpdater<PooledConnection> BORROW_TS = AtomicLongFieldUpdater.newUpdater(PooledConnection.class, "borrowTs");
+
+	final Connection connection;
+	final int slotIdx;
+	final long createTs;
+
+	volatile long lastAccessTs;
+	volatile long lastValidTs;
+
+	// leak detection, borrowTs is 0 while the connection is not lent
+	volatile long borrowTs;
+	volatile String borrowThread;
+	volatile Throwable borrowStack;
+	volatile boolean leakReported;
+
+	StatementCache stmtCache;
+
+	private final AtomicInteger state;
+
+	PooledConnection(Connection connection, int slotIdx) {
+		this.connection = connection;
+		this.slotIdx = slotIdx;
+		this.createTs = System.currentTimeMillis();
+		this.lastAccessTs = createTs;
+		this.lastValidTs = createTs;
+		this.state = new AtomicInteger(STATE_IN_USE);
+	}
+
+	boolean compareAndSetState(int expect, int update) {
+		return state.compareAndSet(expect, update);
+	}
+
+	void setState(int newState) {
+		state.set(newState);
+	}
+
+	int getState() {
+		return state.get();
+	}
+
+	/**
+	 * take over the lease from the borrower, the lease is identified by its borrow time.
+	 *
+	 * @param borrowTs
+	 * @return false if the lease is ended (returned or reclaimed) already
+	 */
+	boolean reclaimLease(long borrowTs) {
+		return borrowTs > 0 && BORROW_TS.compareAndSet(this, borrowTs, RECLAIMED_TS);
+	}
+
+	/**
+	 * end the lease while returning.
+	 *
+	 * @return the borrow time, RECLAIMED_TS if the lease is reclaimed
+	 */
+	long endLease() {
+		return BORROW_TS.getAndSet(this, 0);
+	}
+
+	void closeQuietly() {
+		if(stmtCache != null) {
+			stmtCache.clear();
+		}
+
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PooledConnection [slotIdx=" + slotIdx + ", state=" + state.get()
+				+ ", createTs=" + createTs + ", lastAccessTs=" + lastAccessTs
+				+ ", connection=" + connection + "]";
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+/**
+ * The transaction propagation of DBFactory.beginTransaction(propagation) / TransactionManager.beginTransaction(propagation).
+ *
+ */
+public enum Propagation {
+	
+	/**
+	 * join the current transaction, begin a new one if none (default).
+	 */
+	REQUIRED,
+	
+	/**
+	 * suspend the current transaction and begin a new one with another connection.
+	 */
+	REQUIRES_NEW,
+	
+	/**
+	 * join the current transaction, run without transaction if none.
+	 */
+	SUPPORTS,
+	
+	/**
+	 * begin a savepoint in the current transaction (same connection), which can be rolled back alone, 
+	 * begin a new transaction if none.
+	 */
+	NESTED
+}
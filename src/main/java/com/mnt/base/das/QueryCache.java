@@ -0,0 +1,367 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.mnt.base.util.CacheManager;
+
+/**
+ * Read through query result cache of DBContext, keyed by the sql and params, bounded by capacity and expired after ttl.
+ * 
+ * each table has a version, which is increased while the table is written by DBContext (save/update/delete/bulk/execute),
+ * the cached result is valid only if the versions of all the queried tables are unchanged since the query started.
+ * the tables written in the transaction are invalidated again after the transaction ends.
+ * 
+ * NOTE: the writes outside DBContext (other processes, triggers) are only covered by the ttl.
+ *
+ */
+public class QueryCache {
+	
+	private static final Pattern TOKEN_PATTERN = Pattern.compile("[\\w$.`\"\\[\\]]+|[,()]");
+	private static final Pattern WRITE_TABLE_PATTERN = Pattern.compile(
+			"^\\s*(?:insert\\s+(?:ignore\\s+)?into|replace\\s+into|merge\\s+into|update(?:\\s+ignore)?|delete\\s+from|truncate(?:\\s+table)?)\\s+([\\w$.`\"\\[\\]]+)", 
+			Pattern.CASE_INSENSITIVE);
+	private static final Set<String> NON_ALIAS_WORDS = new HashSet<String>(Arrays.asList(
+			"where", "join", "inner", "left", "right", "full", "outer", "cross", "natural", "on", "using", 
+			"group", "order", "having", "limit", "offset", "union", "for", "lock", "straight_join", "as", "fetch", "window"));
+	
+	private final CacheManager<Key, Entry> cache;
+	// the tables allowed to be cached, null for all
+	private final Set<String> cacheableTables;
+	
+	private final Map<String, AtomicLong> tableVersions = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong globalVersion = new AtomicLong();
+	private final ThreadLocal<Set<String>> pendingTables = new ThreadLocal<Set<String>>();
+	
+	/**
+	 * 
+	 * @param capacity the max cached results
+	 * @param ttl the milliseconds the result kept in the cache, 0 to keep it until invalidated or evicted
+	 * @param cacheableTables the tables allowed to be cached, null or empty for all tables
+	 */
+	public QueryCache(int capacity, long ttl, Set<String> cacheableTables) {
+		this.cache = CacheManager.getInstance(capacity, Math.max(ttl, 0), 0);
+		
+		if(cacheableTables == null || cacheableTables.isEmpty()) {
+			this.cacheableTables = null;
+		} else {
+			this.cacheableTables = new HashSet<String>();
+			for(String table : cacheableTables) {
+				this.cacheableTables.add(normalizeTable(table));
+			}
+		}
+	}
+	
+	/**
+	 * create the cache key before executing the query, the table versions are captured by the key.
+	 * 
+	 * @param kind the query method
+	 * @param sql
+	 * @param params
+	 * @param extra the result keys of the query method, null if none
+	 * @return null if the query can not be cached
+	 */
+	public Key newKey(String kind, String sql, List<Object> params, Object extra) {
+		String[] tables = readTables(sql);
+		
+		if(tables.length == 0) {
+			return null;
+		}
+		
+		long[] versions = new long[tables.length];
+		for(int i = 0; i < tables.length; i++) {
+			if(cacheableTables != null && !cacheableTables.contains(tables[i])) {
+				return null;
+			}
+			
+			versions[i] = tableVersion(tables[i]).get();
+		}
+		
+		return new Key(kind, sql, params == null ? null : new ArrayList<Object>(params), extra, tables, versions, globalVersion.get());
+	}
+	
+	/**
+	 * 
+	 * @param key
+	 * @return the cached result, null if absent, expired or invalidated
+	 */
+	public Object get(Key key) {
+		Entry entry = cache.get(key);
+		
+		if(entry == null) {
+			return null;
+		}
+		
+		if(!isValid(entry.key)) {
+			cache.remove(key);
+			return null;
+		}
+		
+		return entry.result;
+	}
+	
+	/**
+	 * cache the result, skipped if any table is written since the key created.
+	 * 
+	 * @param key
+	 * @param result
+	 */
+	public void put(Key key, Object result) {
+		if(isValid(key)) {
+			cache.put(key, new Entry(key, result));
+		}
+	}
+	
+	/**
+	 * invalidate the tables written by the sql, all the cached results if the table is not recognized.
+	 * 
+	 * @param sql
+	 * @param transactional invalidate them again while the transaction ends
+	 */
+	public void invalidate(String sql, boolean transactional) {
+		String table = writeTable(sql);
+		
+		if(table == null) {
+			invalidateAll();
+		} else {
+			invalidateTable(table);
+		}
+		
+		if(transactional) {
+			Set<String> tables = pendingTables.get();
+			if(tables == null) {
+				tables = new LinkedHashSet<String>();
+				pendingTables.set(tables);
+			}
+			
+			// the empty name means all tables
+			tables.add(table == null ? "" : table);
+		}
+	}
+	
+	/**
+	 * invalidate the tables written in the ended transaction of the current thread.
+	 */
+	public void transactionEnded() {
+		Set<String> tables = pendingTables.get();
+		
+		if(tables != null) {
+			pendingTables.remove();
+			
+			for(String table : tables) {
+				if(table.isEmpty()) {
+					invalidateAll();
+				} else {
+					invalidateTable(table);
+				}
+			}
+		}
+	}
+	
+	public void invalidateTable(String table) {
+		tableVersion(normalizeTable(table)).incrementAndGet();
+	}
+	
+	public void invalidateAll() {
+		globalVersion.incrementAndGet();
+		cache.clear();
+	}
+	
+	private boolean isValid(Key key) {
+		if(key.globalVersion != globalVersion.get()) {
+			return false;
+		}
+		
+		for(int i = 0; i < key.tables.length; i++) {
+			if(tableVersion(key.tables[i]).get() != key.versions[i]) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private AtomicLong tableVersion(String table) {
+		AtomicLong version = tableVersions.get(table);
+		return version != null ? version : tableVersions.computeIfAbsent(table, new Function<String, AtomicLong>() {
+			@Override
+			public AtomicLong apply(String k) {
+				return new AtomicLong();
+			}
+		});
+	}
+	
+	/**
+	 * parse the tables following FROM / JOIN (with the comma separated list) of the query.
+	 * 
+	 * @param sql
+	 * @return
+	 */
+	static String[] readTables(String sql) {
+		Set<String> tables = new LinkedHashSet<String>();
+		
+		Matcher matcher = TOKEN_PATTERN.matcher(sql);
+		List<String> tokens = new ArrayList<String>();
+		while(matcher.find()) {
+			tokens.add(matcher.group());
+		}
+		
+		String token;
+		for(int i = 0; i < tokens.size(); i++) {
+			token = tokens.get(i).toLowerCase(Locale.ENGLISH);
+			
+			if("from".equals(token) || "join".equals(token)) {
+				boolean list = "from".equals(token);
+				
+				while(++i < tokens.size()) {
+					token = tokens.get(i);
+					if("(".equals(token)) {
+						// sub query, its tables are parsed by the loop
+						i--;
+						break;
+					}
+					
+					tables.add(normalizeTable(token));
+					
+					// skip the alias
+					if(i + 1 < tokens.size() && "as".equalsIgnoreCase(tokens.get(i + 1))) {
+						i++;
+					}
+					if(i + 1 < tokens.size() && isAlias(tokens.get(i + 1))) {
+						i++;
+					}
+					
+					if(list && i + 1 < tokens.size() && ",".equals(tokens.get(i + 1))) {
+						i++;
+					} else {
+						break;
+					}
+				}
+			}
+		}
+		
+		return tables.toArray(new String[tables.size()]);
+	}
+	
+	private static boolean isAlias(String token) {
+		return !",".equals(token) && !"(".equals(token) && !")".equals(token) 
+				&& !NON_ALIAS_WORDS.contains(token.toLowerCase(Locale.ENGLISH));
+	}
+	
+	/**
+	 * 
+	 * @param sql
+	 * @return the written table, null if not recognized
+	 */
+	static String writeTable(String sql) {
+		Matcher matcher = WRITE_TABLE_PATTERN.matcher(sql);
+		return matcher.find() ? normalizeTable(matcher.group(1)) : null;
+	}
+	
+	/**
+	 * strip the quotes and schema, in lower case.
+	 * 
+	 * @param table
+	 * @return
+	 */
+	static String normalizeTable(String table) {
+		String t = table.replace("`", "").replace("\"", "").replace("[", "").replace("]", "");
+		int idx = t.lastIndexOf('.');
+		if(idx >= 0) {
+			t = t.substring(idx + 1);
+		}
+		
+		return t.toLowerCase(Locale.ENGLISH);
+	}
+	
+	public static class Key {
+		private final String kind;
+		private final String sql;
+		private final List<Object> params;
+		private final Object extra;
+		private final int hash;
+		
+		private final String[] tables;
+		private final long[] versions;
+		private final long globalVersion;
+		
+		Key(String kind, String sql, List<Object> params, Object extra, String[] tables, long[] versions, long globalVersion) {
+			this.kind = kind;
+			this.sql = sql;
+			this.params = params;
+			this.extra = extra;
+			this.tables = tables;
+			this.versions = versions;
+			this.globalVersion = globalVersion;
+			
+			int h = kind.hashCode();
+			h = h * 31 + sql.hashCode();
+			h = h * 31 + (params == null ? 0 : params.hashCode());
+			h = h * 31 + (extra == null ? 0 : extra.hashCode());
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) {
+				return true;
+			}
+			
+			if(!(obj instanceof Key)) {
+				return false;
+			}
+			
+			// the versions are not part of the key
+			Key other = (Key) obj;
+			return hash == other.hash && kind.equals(other.kind) && sql.equals(other.sql)
+					&& (params == null ? other.params == null : params.equals(other.params))
+					&& (extra == null ? other.extra == null : extra.equals(other.extra));
+		}
+	}
+	
+	private static class Entry {
+		final Key key;
+		final Object result;
+		
+		Entry(Key key, Object result) {
+			this.key = key;
+			this.result = result;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+/**
+ * Thrown by endTransaction() of the root transaction scope, when the transaction is rolled back instead of committed
+ * because an inner (joined) scope rolled back.
+ * 
+ * the scope is ended already while thrown, the following rollback() of the caller is ignored.
+ *
+ */
+public class RollbackOnlyException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public RollbackOnlyException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+import java.util.Map;
+
+/**
+ * Handle the record one by one while streaming the query result, see IContext.query(sql, params, rowHandler).
+ *
+ */
+public interface RowHandler {
+
+	/**
+	 * handle one record, the record map is not retained by the context.
+	 * 
+	 * @param row
+	 * @return false to stop reading the rest records
+	 */
+	boolean handleRow(Map<String, Object> row);
+}
@@ -0,0 +1,343 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Scatter gather executor for the sharded ClusterDBFactory nodes, runs the same statement on all (or the specified) nodes
+ * in parallel and merges the results, the gathering takes the max instead of the sum of the node latency.
+ * 
+ * the executor is bounded, the task runs in the caller thread while the executor is saturated.
+ * by default any node failure fails the whole call, setFailOnError(false) to skip the failed nodes.
+ *
+ */
+public class ScatterGather {
+	
+	private static Log log = LogFactory.getLog(ScatterGather.class);
+	
+	private static final AtomicInteger executorIdx = new AtomicInteger();
+	
+	private final ClusterDBFactory factory;
+	private final ThreadPoolExecutor executor;
+	
+	private long timeout = 0;
+	private boolean failOnError = true;
+	
+	public ScatterGather(ClusterDBFactory factory) {
+		this(factory, Math.max(1, factory.getNodeNames().size()));
+	}
+	
+	/**
+	 * 
+	 * @param factory
+	 * @param threads the executor threads
+	 */
+	public ScatterGather(ClusterDBFactory factory, int threads) {
+		this.factory = factory;
+		
+		final String namePrefix = "db-scatter-" + executorIdx.incrementAndGet() + "-";
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 16),
+				new ThreadFactory() {
+					private final AtomicInteger threadIdx = new AtomicInteger();
+					
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, namePrefix + threadIdx.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * run the task with the context of each node in parallel.
+	 * 
+	 * @param nodeNames the nodes, null for all nodes
+	 * @param task
+	 * @return the node name to the task result, in the node order
+	 */
+	public <T> Map<String, T> scatter(Collection<String> nodeNames, final Function<IContext, T> task) {
+		List<String> names = new ArrayList<String>(nodeNames == null ? factory.getNodeNames() : nodeNames);
+		Map<String, T> results = new LinkedHashMap<String, T>();
+		
+		if(names.size() == 1) {
+			try {
+				results.put(names.get(0), task.apply(factory.getNodeContext(names.get(0))));
+			} catch (RuntimeException e) {
+				handleError(names.get(0), e);
+			}
+			
+			return results;
+		}
+		
+		List<Future<T>> futures = new ArrayList<Future<T>>(names.size());
+		for(final String name : names) {
+			futures.add(executor.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					return task.apply(factory.getNodeContext(name));
+				}
+			}));
+		}
+		
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+		
+		try {
+			for(int i = 0; i < names.size(); i++) {
+				try {
+					long remaining = deadline - System.currentTimeMillis();
+					results.put(names.get(i), timeout > 0 ? futures.get(i).get(Math.max(0, remaining), TimeUnit.MILLISECONDS) : futures.get(i).get());
+				} catch (ExecutionException e) {
+					handleError(names.get(i), e.getCause());
+				} catch (TimeoutException e) {
+					futures.get(i).cancel(true);
+					handleError(names.get(i), e);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while gathering the results of the cluster db nodes.", e);
+		} finally {
+			for(Future<T> future : futures) {
+				future.cancel(true);
+			}
+		}
+		
+		return results;
+	}
+	
+	private void handleError(String nodeName, Throwable e) {
+		if(failOnError) {
+			throw new RuntimeException("Error while executing on the cluster db node: " + nodeName, e);
+		}
+		
+		log.warn("Skip the failed cluster db node: " + nodeName, e);
+	}
+	
+	/**
+	 * query all the nodes and concat the records in the node order.
+	 * 
+	 * @param sql
+	 * @param params
+	 * @return
+	 */
+	public List<Map<String, Object>> query(String sql, List<Object> params) {
+		return query(sql, params, (Collection<String>) null);
+	}
+	
+	public List<Map<String, Object>> query(final String sql, final List<Object> params, Collection<String> nodeNames) {
+		Map<String, List<Map<String, Object>>> nodeResults = scatter(nodeNames, queryTask(sql, params));
+		
+		int size = 0;
+		for(List<Map<String, Object>> records : nodeResults.values()) {
+			size += records.size();
+		}
+		
+		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(size);
+		for(List<Map<String, Object>> records : nodeResults.values()) {
+			results.addAll(records);
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * query all the nodes and merge the records ordered by the key, 
+	 * the sql must order the records by the same key (ORDER BY key [DESC]) on each node.
+	 * 
+	 * @param sql
+	 * @param params
+	 * @param orderKey the record key, the values must be Comparable
+	 * @param desc
+	 * @param limit the max merged records, 0 for no limit
+	 * @return
+	 */
+	public List<Map<String, Object>> queryOrdered(String sql, List<Object> params, final String orderKey, final boolean desc, int limit) {
+		return queryOrdered(sql, params, null, new Comparator<Map<String, Object>>() {
+			@Override
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			public int compare(Map<String, Object> o1, Map<String, Object> o2) {
+				Comparable v1 = (Comparable) o1.get(orderKey);
+				Comparable v2 = (Comparable) o2.get(orderKey);
+				
+				// null first in asc order
+				int c = v1 == null ? (v2 == null ? 0 : -1) : (v2 == null ? 1 : v1.compareTo(v2));
+				return desc ? -c : c;
+			}
+		}, limit);
+	}
+	
+	/**
+	 * k-way merge the ordered records of the nodes.
+	 * 
+	 * @param sql
+	 * @param params
+	 * @param nodeNames null for all nodes
+	 * @param comparator the order of the records on each node
+	 * @param limit the max merged records, 0 for no limit
+	 * @return
+	 */
+	public List<Map<String, Object>> queryOrdered(final String sql, final List<Object> params, Collection<String> nodeNames, 
+			final Comparator<Map<String, Object>> comparator, int limit) {
+		Map<String, List<Map<String, Object>>> nodeResults = scatter(nodeNames, queryTask(sql, params));
+		
+		PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>(Math.max(1, nodeResults.size()), new Comparator<Cursor>() {
+			@Override
+			public int compare(Cursor o1, Cursor o2) {
+				int c = comparator.compare(o1.current(), o2.current());
+				// stable by the node order
+				return c != 0 ? c : Integer.compare(o1.nodeIdx, o2.nodeIdx);
+			}
+		});
+		
+		int size = 0;
+		int nodeIdx = 0;
+		for(List<Map<String, Object>> records : nodeResults.values()) {
+			if(!records.isEmpty()) {
+				cursors.add(new Cursor(nodeIdx, records));
+				size += records.size();
+			}
+			nodeIdx++;
+		}
+		
+		if(limit > 0) {
+			size = Math.min(size, limit);
+		}
+		
+		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(size);
+		Cursor cursor;
+		while(results.size() < size && (cursor = cursors.poll()) != null) {
+			results.add(cursor.current());
+			
+			if(cursor.advance()) {
+				cursors.add(cursor);
+			}
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * run the count sql on the nodes and sum the counts.
+	 * 
+	 * @param sql
+	 * @param params
+	 * @return
+	 */
+	public long count(String sql, List<Object> params) {
+		return count(sql, params, null);
+	}
+	
+	public long count(final String sql, final List<Object> params, Collection<String> nodeNames) {
+		long count = 0;
+		
+		for(Integer c : scatter(nodeNames, new Function<IContext, Integer>() {
+			@Override
+			public Integer apply(IContext ctx) {
+				return ctx.count(sql, params);
+			}
+		}).values()) {
+			count += c;
+		}
+		
+		return count;
+	}
+	
+	private static Function<IContext, List<Map<String, Object>>> queryTask(final String sql, final List<Object> params) {
+		return new Function<IContext, List<Map<String, Object>>>() {
+			@Override
+			public List<Map<String, Object>> apply(IContext ctx) {
+				return ctx.query(sql, params);
+			}
+		};
+	}
+	
+	/**
+	 * the max milliseconds waiting for all the nodes, 0 for no limit.
+	 * 
+	 * @param timeout
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+	
+	public long getTimeout() {
+		return timeout;
+	}
+	
+	/**
+	 * 
+	 * @param failOnError false to skip the failed (or timeout) nodes and merge the rest results
+	 */
+	public void setFailOnError(boolean failOnError) {
+		this.failOnError = failOnError;
+	}
+	
+	public boolean isFailOnError() {
+		return failOnError;
+	}
+	
+	public void shutdown() {
+		executor.shutdown();
+	}
+	
+	private static class Cursor {
+		final int nodeIdx;
+		final List<Map<String, Object>> records;
+		int idx;
+		
+		Cursor(int nodeIdx, List<Map<String, Object>> records) {
+			this.nodeIdx = nodeIdx;
+			this.records = records;
+		}
+		
+		Map<String, Object> current() {
+			return records.get(idx);
+		}
+		
+		boolean advance() {
+			return ++idx < records.size();
+		}
+	}
+}
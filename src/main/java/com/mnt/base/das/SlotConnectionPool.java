@@ -0,0 +1,816 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mnt.base.das;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.mnt.base.util.TimeUtil;
+
+/**
+ * lock free connection pool engine.
+ *
+ * the connections are kept in a fixed slot array (size of maxPoolSize), each slot changes
+ * between idle and in use by CAS, so borrow and return never take a lock:
+ *
+ * 1. the thread first try the slot it used last time (thread affinity).
+ * 2. scan the slot array for an idle connection, or create a new one while the pool is not full.
+ * 3. wait on a fair hand-off queue, the returning thread passes its connection to the first waiter directly.
+ *
+ * no monitor is held while waiting or connecting (the waiter parks in the hand-off queue), so the
+ * virtual threads waiting for the connection unmount from their carrier threads instead of pinning them.
+ *
+ * the connection -> slot map makes returning O(1).
+ *
+ * each slot can hold a LRU PreparedStatement cache (statementCacheSize), so the repeated sql
+ * reuses the statement prepared on the same connection.
+ *
+ * the idle connections are validated, evicted and kept warm by housekeep(), which is expected to be
+ * invoked periodically by a background thread (see DBFactory), so the borrowing thread only validates
+ * the connection which is not known as alive within the validation interval.
+ *
+ * leak detection (leakDetectionThreshold > 0): housekeep() reports the connections borrowed over the threshold
+ * with the borrowing thread and the borrow stack (captured for 1 of leakStackSampleRate borrows to limit the overhead),
+ * the ones held over leakReclaimTimeout are closed and their slots freed, so the pool does not starve
+ * because of the forgotten connections. the suspected leaks are dumped to the log every leakDumpPeriod
+ * and exposed as LeakDetectionMBean.
+ *
+ */
+public class SlotConnectionPool implements ConnectionPool, LeakDetectionMBean {
+
+	private static Log log = LogFactory.getLog(SlotConnectionPool.class);
+
+	// bounds the delay of the missed hand-off, the waiter rescans the slots after each slice
+	private static final long WAIT_SLICE_MS = 50;
+
+	private final String poolName;
+	private final int maxPoolSize;
+	private final long connectionTimeout;
+	private final ConnectionCreator connectionCreator;
+
+	private int minIdle = 0;
+	private long idleTimeout = TimeUtil.MINUTES_1 * 10;
+	private long maxLifetime = TimeUtil.MINUTES_30;
+	private long validationInterval = TimeUtil.MINUTES_1;
+	private int validationTimeout = 5;
+	private int statementCacheSize = 0;
+
+	private long leakDetectionThreshold = 0;
+	private int leakStackSampleRate = 1;
+	private long leakReclaimTimeout = 0;
+	private long leakDumpPeriod = TimeUtil.MINUTES_1 * 5;
+	private volatile long lastLeakDumpTs;
+	private final AtomicLong leakCount = new AtomicLong();
+	private final AtomicLong reclaimedCount = new AtomicLong();
+
+	private final AtomicLong stmtCacheHits = new AtomicLong();
+	private final AtomicLong stmtCacheMisses = new AtomicLong();
+	private volatile MetricsSink metricsSink;
+
+	private final AtomicReferenceArray<PooledConnection> slots;
+	private final Map<Connection, PooledConnection> pooledConnMap;
+	private final AtomicInteger totalCount = new AtomicInteger();
+	private final AtomicInteger waiters = new AtomicInteger();
+	private final SynchronousQueue<PooledConnection> handoffQueue = new SynchronousQueue<PooledConnection>(true);
+	private final ThreadLocal<PooledConnection> lastUsedHolder = new ThreadLocal<PooledConnection>();
+
+	private volatile boolean shutdown;
+
+	/**
+	 *
+	 * @param poolName
+	 * @param maxPoolSize
+	 * @param connectionTimeout the max milliseconds to wait for a connection, wait without limit if it is not over zero.
+	 * @param connectionCreator
+	 */
+	public SlotConnectionPool(String poolName, int maxPoolSize, long connectionTimeout, ConnectionCreator connectionCreator) {
+		if(maxPoolSize < 1) {
+			throw new IllegalArgumentException("The max pool size must be over zero.");
+		}
+
+		this.poolName = poolName;
+		this.maxPoolSize = maxPoolSize;
+		this.connectionTimeout = connectionTimeout;
+		this.connectionCreator = connectionCreator;
+		this.slots = new AtomicReferenceArray<PooledConnection>(maxPoolSize);
+		this.pooledConnMap = new ConcurrentHashMap<Connection, PooledConnection>(maxPoolSize * 2);
+	}
+
+	@Override
+	public Connection borrowConnection() {
+		MetricsSink sink = metricsSink;
+		if(sink == null) {
+			return acquireConnection();
+		}
+
+		long startTs = System.nanoTime();
+		boolean acquired = false;
+		try {
+			Connection conn = acquireConnection();
+			acquired = true;
+			return conn;
+		} finally {
+			sink.recordAcquire(poolName, System.nanoTime() - startTs, !acquired);
+		}
+	}
+
+	private Connection acquireConnection() {
+		checkShutdown();
+
+		PooledConnection pc = lastUsedHolder.get();
+		if(pc != null && pc.compareAndSetState(PooledConnection.STATE_IDLE, PooledConnection.STATE_IN_USE) && validate(pc)) {
+			return lend(pc);
+		}
+
+		long deadline = connectionTimeout > 0 ? System.currentTimeMillis() + connectionTimeout : Long.MAX_VALUE;
+
+		// register as waiter before scanning, so the returning thread never misses us
+		waiters.incrementAndGet();
+		try {
+			while(true) {
+				pc = acquireIdle();
+
+				if(pc == null) {
+					// do not block the returning threads while connecting to db
+					waiters.decrementAndGet();
+					try {
+						pc = createIfAbsent();
+					} finally {
+						waiters.incrementAndGet();
+					}
+
+					if(pc != null) {
+						return lend(pc);
+					}
+
+					pc = acquireIdle();
+				}
+
+				if(pc == null) {
+					checkShutdown();
+
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0) {
+						throw new RuntimeException("Timeout while waiting for the db connection from pool: " + poolName);
+					}
+
+					pc = handoffQueue.poll(Math.min(remaining, WAIT_SLICE_MS), TimeUnit.MILLISECONDS);
+
+					if(pc != null && !pc.compareAndSetState(PooledConnection.STATE_IDLE, PooledConnection.STATE_IN_USE)) {
+						pc = null;
+					}
+				}
+
+				if(pc != null && validate(pc)) {
+					return lend(pc);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the db connection from pool: " + poolName, e);
+		} finally {
+			waiters.decrementAndGet();
+		}
+	}
+
+	private PooledConnection acquireIdle() {
+		PooledConnection pc;
+		for(int i = 0; i < maxPoolSize; i++) {
+			pc = slots.get(i);
+			if(pc != null && pc.compareAndSetState(PooledConnection.STATE_IDLE, PooledConnection.STATE_IN_USE)) {
+				return pc;
+			}
+		}
+
+		return null;
+	}
+
+	private PooledConnection createIfAbsent() {
+		int total;
+		do {
+			total = totalCount.get();
+			if(total >= maxPoolSize) {
+				return null;
+			}
+		} while(!totalCount.compareAndSet(total, total + 1));
+
+		Connection conn;
+		try {
+			conn = connectionCreator.createConnection();
+		} catch (SQLException e) {
+			totalCount.decrementAndGet();
+			log.error("Error when construct the db connection for pool: " + poolName, e);
+			throw new RuntimeException("Error when construct the db connection.", e);
+		} catch (RuntimeException e) {
+			totalCount.decrementAndGet();
+			throw e;
+		}
+
+		PooledConnection pc;
+		for(int i = 0; i < maxPoolSize; i++) {
+			if(slots.get(i) == null) {
+				pc = new PooledConnection(conn, i);
+				pooledConnMap.put(conn, pc);
+
+				if(slots.compareAndSet(i, null, pc)) {
+					return pc;
+				}
+
+				pooledConnMap.remove(conn);
+			}
+		}
+
+		// the slot is reserved by totalCount, should not reach here
+		totalCount.decrementAndGet();
+		closeQuietly(conn);
+		throw new IllegalStateException("No free slot in connection pool: " + poolName);
+	}
+
+	private Connection lend(PooledConnection pc) {
+		lastUsedHolder.set(pc);
+
+		if(leakDetectionThreshold > 0) {
+			Thread t = Thread.currentThread();
+			pc.borrowThread = t.getName();
+			pc.borrowStack = leakStackSampleRate > 0 && (leakStackSampleRate == 1 || ThreadLocalRandom.current().nextInt(leakStackSampleRate) == 0)
+					? new Throwable("Connection borrowed from pool " + poolName + " by thread " + t.getName()) : null;
+			pc.leakReported = false;
+			pc.borrowTs = System.currentTimeMillis();
+		}
+
+		return pc.connection;
+	}
+
+	private boolean validate(PooledConnection pc) {
+		long now = System.currentTimeMillis();
+
+		if(maxLifetime > 0 && now - pc.createTs > maxLifetime) {
+			remove(pc);
+			return false;
+		}
+
+		// the connection be checked or used recently, skip the round trip
+		if(now - pc.lastValidTs <= validationInterval) {
+			return true;
+		}
+
+		return checkAlive(pc);
+	}
+
+	private boolean checkAlive(PooledConnection pc) {
+		boolean valid;
+		try {
+			valid = pc.connection.isValid(validationTimeout);
+		} catch (SQLException e) {
+			valid = false;
+		}
+
+		if(valid) {
+			pc.lastValidTs = System.currentTimeMillis();
+		} else {
+			remove(pc);
+		}
+
+		return valid;
+	}
+
+	private void remove(PooledConnection pc) {
+		pc.setState(PooledConnection.STATE_REMOVED);
+
+		if(slots.compareAndSet(pc.slotIdx, pc, null)) {
+			pooledConnMap.remove(pc.connection);
+			totalCount.decrementAndGet();
+		}
+
+		pc.closeQuietly();
+	}
+
+	@Override
+	public boolean returnConnection(Connection conn) {
+		PooledConnection pc = pooledConnMap.get(conn);
+
+		if(pc == null) {
+			return false;
+		}
+
+		long borrowTs = pc.endLease();
+
+		if(borrowTs == PooledConnection.RECLAIMED_TS) {
+			// reclaimed as leaked after the lookup, closed and removed by the reclaiming thread
+			log.warn("The reclaimed leaked connection is returned, borrowed by thread: " + pc.borrowThread);
+			return true;
+		}
+
+		if(pc.leakReported) {
+			log.info("The suspected leaked connection is returned after " + (System.currentTimeMillis() - borrowTs) + " ms, borrowed by thread: " + pc.borrowThread);
+		}
+
+		pc.borrowStack = null;
+
+		boolean closed;
+		try {
+			closed = conn.isClosed();
+		} catch (SQLException e) {
+			closed = true;
+		}
+
+		long now = System.currentTimeMillis();
+
+		if(closed || shutdown || (maxLifetime > 0 && now - pc.createTs > maxLifetime)) {
+			remove(pc);
+			return true;
+		}
+
+		pc.lastAccessTs = now;
+		pc.lastValidTs = now;
+
+		if(requeue(pc)) {
+			lastUsedHolder.set(pc);
+		} else {
+			log.warn("Skip returning the connection which is not in use: " + pc);
+		}
+
+		return true;
+	}
+
+	/**
+	 * mark the in use connection as idle and hand it off to the waiting thread if any.
+	 *
+	 * @param pc
+	 * @return false if the connection is not in use
+	 */
+	private boolean requeue(PooledConnection pc) {
+		if(!pc.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_IDLE)) {
+			return false;
+		}
+
+		// never wait for the taker: the waiter may be validating or scanning instead of polling, the connection missed
+		// here stays idle in its slot and is found by the next scan of the waiters (at least every WAIT_SLICE_MS)
+		if(waiters.get() > 0) {
+			handoffQueue.offer(pc);
+		}
+
+		return true;
+	}
+
+	/**
+	 * validate the idle connections, evict the ones idle over idleTimeout or live over maxLifetime,
+	 * and then create connections to keep minIdle idle connections in the pool.
+	 */
+	@Override
+	public void housekeep() {
+		if(shutdown) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		int idleCount = getIdleCount();
+
+		PooledConnection pc;
+		for(int i = 0; i < maxPoolSize; i++) {
+			pc = slots.get(i);
+
+			// reserve the idle connection, skip the ones in use
+			if(pc == null || !pc.compareAndSetState(PooledConnection.STATE_IDLE, PooledConnection.STATE_IN_USE)) {
+				continue;
+			}
+
+			if(maxLifetime > 0 && now - pc.createTs > maxLifetime) {
+				remove(pc);
+				idleCount--;
+			} else if(idleTimeout > 0 && now - pc.lastAccessTs > idleTimeout && idleCount > minIdle) {
+				remove(pc);
+				idleCount--;
+			} else if(validate(pc)) {
+				// the ones used or checked within the validation interval are not checked again
+				requeue(pc);
+			} else {
+				idleCount--;
+			}
+		}
+
+		fillMinIdle();
+
+		if(leakDetectionThreshold > 0) {
+			checkLeaks(now);
+		}
+	}
+
+	private void checkLeaks(long now) {
+		int suspected = 0;
+		long borrowTs, held;
+
+		PooledConnection pc;
+		for(int i = 0; i < maxPoolSize; i++) {
+			pc = slots.get(i);
+
+			if(pc == null || pc.getState() != PooledConnection.STATE_IN_USE) {
+				continue;
+			}
+
+			borrowTs = pc.borrowTs;
+			held = now - borrowTs;
+
+			// borrowTs is 0 for the connection reserved by housekeeping
+			if(borrowTs <= 0 || held <= leakDetectionThreshold) {
+				continue;
+			}
+
+			if(!pc.leakReported) {
+				pc.leakReported = true;
+				leakCount.incrementAndGet();
+				log.warn("Connection leak suspected in pool " + poolName + ", held " + held + " ms by thread: " + pc.borrowThread
+						+ (pc.borrowStack == null ? " (borrow stack not sampled)" : ""), pc.borrowStack);
+			}
+
+			if(leakReclaimTimeout > 0 && held > leakReclaimTimeout && reclaim(pc, borrowTs)) {
+				reclaimedCount.incrementAndGet();
+				log.warn("Reclaim the leaked connection of pool " + poolName + ", held " + held + " ms by thread: " + pc.borrowThread);
+			} else {
+				suspected++;
+			}
+		}
+
+		if(suspected > 0 && leakDumpPeriod > 0 && now - lastLeakDumpTs >= leakDumpPeriod) {
+			lastLeakDumpTs = now;
+			dumpLeaks();
+		}
+	}
+
+	/**
+	 * close the leaked connection, free its slot and forget it, the late return is treated as the foreign connection.
+	 *
+	 * @param pc
+	 * @param borrowTs the borrow time seen by the checker
+	 * @return
+	 */
+	private boolean reclaim(PooledConnection pc, long borrowTs) {
+		// the single CAS owns the lease, it fails if the connection is returned (or lent again) after the check
+		if(!pc.reclaimLease(borrowTs)) {
+			return false;
+		}
+
+		// the borrower can not return it any more, so it stays in use until here
+		pc.setState(PooledConnection.STATE_RECLAIMED);
+
+		if(slots.compareAndSet(pc.slotIdx, pc, null)) {
+			totalCount.decrementAndGet();
+		}
+
+		pooledConnMap.remove(pc.connection);
+
+		// the cached statements are closed with the connection
+		closeQuietly(pc.connection);
+
+		return true;
+	}
+
+	private void fillMinIdle() {
+		PooledConnection pc;
+		while(!shutdown && getIdleCount() < minIdle && totalCount.get() < maxPoolSize) {
+			try {
+				pc = createIfAbsent();
+			} catch (RuntimeException e) {
+				// logged while creating, retry in next round
+				break;
+			}
+
+			if(pc == null) {
+				break;
+			}
+
+			requeue(pc);
+		}
+	}
+
+	private void checkShutdown() {
+		if(shutdown) {
+			throw new RuntimeException("The connection pool is shutdown: " + poolName);
+		}
+	}
+
+	private void closeQuietly(Connection conn) {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(Connection conn, String sql, int autoGeneratedKeys) throws SQLException {
+		if(statementCacheSize <= 0) {
+			return null;
+		}
+
+		PooledConnection pc = pooledConnMap.get(conn);
+
+		if(pc == null) {
+			return null;
+		}
+
+		if(pc.stmtCache == null) {
+			pc.stmtCache = new StatementCache(statementCacheSize, stmtCacheHits, stmtCacheMisses);
+		}
+
+		return pc.stmtCache.prepare(conn, sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public boolean releaseStatement(PreparedStatement ps) {
+		if(statementCacheSize <= 0) {
+			return false;
+		}
+
+		PooledConnection pc;
+		try {
+			pc = pooledConnMap.get(ps.getConnection());
+		} catch (SQLException e) {
+			return false;
+		}
+
+		return pc != null && pc.stmtCache != null && pc.stmtCache.release(ps);
+	}
+
+	@Override
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	@Override
+	public int getActiveCount() {
+		return countState(PooledConnection.STATE_IN_USE);
+	}
+
+	@Override
+	public int getIdleCount() {
+		return countState(PooledConnection.STATE_IDLE);
+	}
+
+	@Override
+	public int getWaitingCount() {
+		return waiters.get();
+	}
+
+	private int countState(int state) {
+		int count = 0;
+		PooledConnection pc;
+		for(int i = 0; i < maxPoolSize; i++) {
+			pc = slots.get(i);
+			if(pc != null && pc.getState() == state) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+
+		PooledConnection pc;
+		for(int i = 0; i < maxPoolSize; i++) {
+			pc = slots.get(i);
+			if(pc != null && pc.compareAndSetState(PooledConnection.STATE_IDLE, PooledConnection.STATE_REMOVED)) {
+				remove(pc);
+			}
+		}
+	}
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	public void setMinIdle(int minIdle) {
+		this.minIdle = Math.min(minIdle, maxPoolSize);
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public long getMaxLifetime() {
+		return maxLifetime;
+	}
+
+	public void setMaxLifetime(long maxLifetime) {
+		this.maxLifetime = maxLifetime;
+	}
+
+	public long getValidationInterval() {
+		return validationInterval;
+	}
+
+	public void setValidationInterval(long validationInterval) {
+		this.validationInterval = validationInterval;
+	}
+
+	public int getValidationTimeout() {
+		return validationTimeout;
+	}
+
+	public void setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public long getStatementCacheHits() {
+		return stmtCacheHits.get();
+	}
+
+	public long getStatementCacheMisses() {
+		return stmtCacheMisses.get();
+	}
+
+	@Override
+	public String getPoolName() {
+		return poolName;
+	}
+
+	@Override
+	public long getLeakDetectionThreshold() {
+		return leakDetectionThreshold;
+	}
+
+	/**
+	 * report the connections borrowed over the milliseconds, 0 to disable the leak detection.
+	 *
+	 * @param leakDetectionThreshold
+	 */
+	public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+		this.leakDetectionThreshold = leakDetectionThreshold;
+	}
+
+	public int getLeakStackSampleRate() {
+		return leakStackSampleRate;
+	}
+
+	/**
+	 * capture the borrow stack for 1 of the rate borrows, 1 for every borrow, 0 to disable it.
+	 *
+	 * @param leakStackSampleRate
+	 */
+	public void setLeakStackSampleRate(int leakStackSampleRate) {
+		this.leakStackSampleRate = leakStackSampleRate;
+	}
+
+	public long getLeakReclaimTimeout() {
+		return leakReclaimTimeout;
+	}
+
+	/**
+	 * close the connections borrowed over the milliseconds and free their slots, 0 to disable it.
+	 *
+	 * @param leakReclaimTimeout
+	 */
+	public void setLeakReclaimTimeout(long leakReclaimTimeout) {
+		this.leakReclaimTimeout = leakReclaimTimeout;
+	}
+
+	public long getLeakDumpPeriod() {
+		return leakDumpPeriod;
+	}
+
+	public void setLeakDumpPeriod(long leakDumpPeriod) {
+		this.leakDumpPeriod = leakDumpPeriod;
+	}
+
+	@Override
+	public long getLeakCount() {
+		return leakCount.get();
+	}
+
+	@Override
+	public long getReclaimedCount() {
+		return reclaimedCount.get();
+	}
+
+	@Override
+	public int getSuspectedLeakCount() {
+		return getSuspectedLeaks().length;
+	}
+
+	@Override
+	public String[] getSuspectedLeaks() {
+		List<String> leaks = new ArrayList<String>();
+
+		if(leakDetectionThreshold > 0) {
+			long now = System.currentTimeMillis();
+			long borrowTs;
+
+			PooledConnection pc;
+			for(int i = 0; i < maxPoolSize; i++) {
+				pc = slots.get(i);
+
+				if(pc == null || pc.getState() != PooledConnection.STATE_IN_USE) {
+					continue;
+				}
+
+				borrowTs = pc.borrowTs;
+				if(borrowTs > 0 && now - borrowTs > leakDetectionThreshold) {
+					leaks.add(describeLeak(pc, now - borrowTs));
+				}
+			}
+		}
+
+		return leaks.toArray(new String[leaks.size()]);
+	}
+
+	@Override
+	public void dumpLeaks() {
+		String[] leaks = getSuspectedLeaks();
+
+		if(leaks.length > 0) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(leaks.length).append(" suspected leaked connections in pool ").append(poolName).append(':');
+
+			for(String leak : leaks) {
+				sb.append("\n").append(leak);
+			}
+
+			log.warn(sb.toString());
+		}
+	}
+
+	private String describeLeak(PooledConnection pc, long held) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("slot=").append(pc.slotIdx).append(", heldMs=").append(held).append(", thread=").append(pc.borrowThread);
+
+		Throwable stack = pc.borrowStack;
+		if(stack == null) {
+			sb.append(", borrow stack not sampled");
+		} else {
+			StringWriter sw = new StringWriter();
+			stack.printStackTrace(new PrintWriter(sw));
+			sb.append(", borrowed at:\n").append(sw.toString().trim());
+		}
+
+		return sb.toString();
+	}
+
+	public MetricsSink getMetricsSink() {
+		return metricsSink;
+	}
+
+	/**
+	 * record the acquire latency to the sink, null to disable it.
+	 *
+	 * @param metricsSink
+	 */
+	public void setMetricsSink(MetricsSink metricsSink) {
+		this.metricsSink = metricsSink;
+	}
+
+	@Override
+	public String toString() {
+		return "SlotConnectionPool [poolName=" + poolName + ", maxPoolSize=" + maxPoolSize
+				+ ", total=" + totalCount.get() + ", active=" + getActiveCount()
+				+ ", idle=" + getIdleCount() + ", waiting=" + waiters.get() + "]";
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mnt.base.das;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU PreparedStatement cache bound to one pooled connection.
+ *
+ * the pooled connection is used by only one thread at a time, so the cache is not synchronized.
+ * the statement still in use (e.g. the same sql executed inside the result set loop) is never
+ * lent twice, a plain statement is prepared for that case.
+ *
+ */
+class StatementCache {
+
+	private final int capacity;
+	private final AtomicLong hitCounter;
+	private final AtomicLong missCounter;
+
+	private final LinkedHashMap<StatementKey, CachedStatement> cache;
+	private final Map<PreparedStatement, CachedStatement> lentStatements = new IdentityHashMap<PreparedStatement, CachedStatement>();
+
+	/**
+	 *
+	 * @param capacity
+	 * @param hitCounter the hit counter shared by the caches of the pool
+	 * @param missCounter the miss counter shared by the caches of the pool
+	 */
+	StatementCache(int capacity, AtomicLong hitCounter, AtomicLong missCounter) {
+		this.capacity = capacity;
+		this.hitCounter = hitCounter;
+		this.missCounter = missCounter;
+		this.cache = new LinkedHashMap<StatementKey, CachedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * retrieve the cached statement or prepare a new one with the connection.
+	 *
+	 * @param conn
+	 * @param sql
+	 * @param autoGeneratedKeys
+	 * @return
+	 * @throws SQLException
+	 */
+	PreparedStatement prepare(Connection conn, String sql, int autoGeneratedKeys) throws SQLException {
+		StatementKey key = new StatementKey(sql, autoGeneratedKeys);
+		CachedStatement cs = cache.get(key);
+
+		if(cs != null) {
+			if(cs.inUse) {
+				// the same statement is still in use by the caller, do not share it
+				missCounter.incrementAndGet();
+				return newStatement(conn, sql, autoGeneratedKeys);
+			}
+
+			hitCounter.incrementAndGet();
+		} else {
+			missCounter.incrementAndGet();
+
+			cs = new CachedStatement(key, newStatement(conn, sql, autoGeneratedKeys));
+			cache.put(key, cs);
+			evictExceeded();
+		}
+
+		cs.inUse = true;
+		lentStatements.put(cs.statement, cs);
+
+		return cs.statement;
+	}
+
+	/**
+	 * release the lent statement back to the cache.
+	 *
+	 * @param ps
+	 * @return false if the statement is not lent by this cache, the caller need to close it.
+	 */
+	boolean release(PreparedStatement ps) {
+		CachedStatement cs = lentStatements.remove(ps);
+
+		if(cs == null) {
+			return false;
+		}
+
+		cs.inUse = false;
+
+		if(cs.evicted) {
+			closeQuietly(ps);
+		} else {
+			try {
+				ps.clearParameters();
+				ps.clearBatch();
+			} catch (SQLException e) {
+				cache.remove(cs.key);
+				closeQuietly(ps);
+			}
+		}
+
+		return true;
+	}
+
+	void clear() {
+		for(CachedStatement cs : cache.values()) {
+			closeQuietly(cs.statement);
+		}
+
+		cache.clear();
+		lentStatements.clear();
+	}
+
+	int size() {
+		return cache.size();
+	}
+
+	private void evictExceeded() {
+		Iterator<CachedStatement> it = cache.values().iterator();
+		CachedStatement cs;
+		while(cache.size() > capacity && it.hasNext()) {
+			cs = it.next();
+			it.remove();
+
+			if(cs.inUse) {
+				// close it while releasing
+				cs.evicted = true;
+			} else {
+				closeQuietly(cs.statement);
+			}
+		}
+	}
+
+	private PreparedStatement newStatement(Connection conn, String sql, int autoGeneratedKeys) throws SQLException {
+		return autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? conn.prepareStatement(sql, autoGeneratedKeys) : conn.prepareStatement(sql);
+	}
+
+	private void closeQuietly(PreparedStatement ps) {
+		try {
+			ps.close();
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+
+	private static class CachedStatement {
+		final StatementKey key;
+		final PreparedStatement statement;
+		boolean inUse;
+		boolean evicted;
+
+		CachedStatement(StatementKey key, PreparedStatement statement) {
+			this.key = key;
+			this.statement = statement;
+		}
+	}
+
+	private static class StatementKey {
+		final String sql;
+		final int autoGeneratedKeys;
+
+		StatementKey(String sql, int autoGeneratedKeys) {
+			this.sql = sql;
+			this.autoGeneratedKeys = autoGeneratedKeys;
+		}
+
+		@Override
+		public int hashCode() {
+			return sql.hashCode() * 31 + autoGeneratedKeys;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) {
+				return true;
+			}
+
+			if(!(obj instanceof StatementKey)) {
+				return false;
+			}
+
+			StatementKey other = (StatementKey) obj;
+			return autoGeneratedKeys == other.autoGeneratedKeys && sql.equals(other.sql);
+		}
+	}
+}
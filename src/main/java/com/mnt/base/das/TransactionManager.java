@@ -31,7 +31,27 @@ public class TransactionManager {
 	private static DBFactory dBFactory = DBFactory.getDBFactory(DBFactory.FactoryType.RELATION_DB);
 
 	public static void beginTransaction() {
-		dBFactory.beginTransaction();
+		beginTransaction(Propagation.REQUIRED);
+	}
+	
+	/**
+	 * begin the transaction scope with the propagation, each scope must be ended by endTransaction() or rollback().
+	 * 
+	 * <pre>
+	 * TransactionManager.beginTransaction(Propagation.NESTED);
+	 * try {
+	 *     ...
+	 *     TransactionManager.endTransaction();
+	 * } catch (RuntimeException e) {
+	 *     // only rolls back to the savepoint, the outer transaction goes on
+	 *     TransactionManager.rollback();
+	 * }
+	 * </pre>
+	 * 
+	 * @param propagation
+	 */
+	public static void beginTransaction(Propagation propagation) {
+		dBFactory.beginTransaction(propagation);
 	}
 	
 	public static void endTransaction() {
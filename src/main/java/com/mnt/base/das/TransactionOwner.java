@@ -0,0 +1,89 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.das;
+
+import java.sql.Connection;
+import java.sql.Savepoint;
+import java.util.ArrayDeque;
+
+/**
+ * The thread bound transaction of the DBFactory, the nested beginTransaction calls are kept as the scope stack,
+ * each endTransaction/rollback pops one scope.
+ * 
+ * the scope is one of:
+ * 
+ * root      - begins the physical transaction on the connection, commits or rolls back it.
+ * joined    - joins the current transaction (REQUIRED, SUPPORTS), rollback marks the transaction as rollback only.
+ * savepoint - the nested transaction (NESTED), rollback only rolls back to the savepoint.
+ *
+ */
+class TransactionOwner {
+	
+	// null while running SUPPORTS without transaction
+	final Connection connection;
+	// the transaction suspended by REQUIRES_NEW
+	final TransactionOwner suspended;
+	
+	boolean rollbackOnly;
+	
+	private final ArrayDeque<Scope> scopes = new ArrayDeque<Scope>();
+	
+	TransactionOwner(Connection connection, TransactionOwner suspended) {
+		this.connection = connection;
+		this.suspended = suspended;
+	}
+	
+	boolean isActive() {
+		return connection != null;
+	}
+	
+	void pushScope(boolean root, Savepoint savepoint) {
+		scopes.push(new Scope(root, savepoint));
+	}
+	
+	Scope popScope() {
+		Scope scope = scopes.poll();
+		
+		if(scope == null) {
+			throw new RuntimeException("Unbalanced transaction: no transaction scope to end.");
+		}
+		
+		return scope;
+	}
+	
+	boolean hasScope() {
+		return !scopes.isEmpty();
+	}
+	
+	int depth() {
+		return scopes.size();
+	}
+	
+	static class Scope {
+		final boolean root;
+		final Savepoint savepoint;
+		
+		Scope(boolean root, Savepoint savepoint) {
+			this.root = root;
+			this.savepoint = savepoint;
+		}
+	}
+}
@@ -0,0 +1,363 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mnt.base.das;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Write behind batcher for the small insert/update statements.
+ *
+ * the writes with the same sql arriving within maxDelay milliseconds (or up to maxBatchSize writes) are grouped
+ * and executed by one IContext.bulkUpdate(...) (executeBatch) call in the batcher thread, each caller gets the future
+ * of its own update count.
+ *
+ * 1. the writes issued in transaction are executed directly with the transaction connection.
+ * 2. the pending writes of the thread are flushed before the thread begins a transaction (DBFactory.beginTransaction(...)).
+ * 3. the whole batch fails (and is rolled back) if any write in the batch fails.
+ * 4. each write must have the params, the statement without params can not be batched.
+ *
+ */
+public class WriteBatcher {
+
+	private static Log log = LogFactory.getLog(WriteBatcher.class);
+
+	private static final List<WriteBatcher> batchers = new CopyOnWriteArrayList<WriteBatcher>();
+	private static final AtomicInteger batcherIdx = new AtomicInteger();
+
+	private final IContext context;
+	private final int maxBatchSize;
+	private final long maxDelay;
+
+	private final Map<String, Batch> openBatches = new ConcurrentHashMap<String, Batch>();
+	private final Set<Batch> flushingBatches = ConcurrentHashMap.newKeySet();
+	// the batches the current thread wrote to and not flushed yet
+	private final ThreadLocal<List<Batch>> pendingHolder = new ThreadLocal<List<Batch>>();
+	private final ScheduledExecutorService flusher;
+
+	public WriteBatcher(IContext context) {
+		this(context, 100, 5);
+	}
+
+	public WriteBatcher(IContext context, int maxBatchSize, long maxDelay) {
+		this(context, maxBatchSize, maxDelay, 2);
+	}
+
+	/**
+	 *
+	 * @param context
+	 * @param maxBatchSize the max writes per batch
+	 * @param maxDelay the max milliseconds the write waits for the batch
+	 * @param flushThreads the threads executing the batches
+	 */
+	public WriteBatcher(IContext context, int maxBatchSize, long maxDelay, int flushThreads) {
+		this.context = context;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelay = maxDelay;
+
+		final String namePrefix = "db-write-batcher-" + batcherIdx.incrementAndGet() + "-";
+		this.flusher = Executors.newScheduledThreadPool(flushThreads, new ThreadFactory() {
+			private final AtomicInteger threadIdx = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, namePrefix + threadIdx.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		batchers.add(this);
+	}
+
+	/**
+	 * batch the insert, the future returns true if one record be saved.
+	 *
+	 * @param sql
+	 * @param params
+	 * @return
+	 */
+	public CompletableFuture<Boolean> save(String sql, List<Object> params) {
+		return update(sql, params).thenApply(new Function<Integer, Boolean>() {
+			@Override
+			public Boolean apply(Integer count) {
+				return count == 1 || count == Statement.SUCCESS_NO_INFO;
+			}
+		});
+	}
+
+	/**
+	 * batch the update, the future returns the update count of the write
+	 * (Statement.SUCCESS_NO_INFO if the driver does not report it).
+	 *
+	 * @param sql
+	 * @param params
+	 * @return
+	 */
+	public CompletableFuture<Integer> update(String sql, List<Object> params) {
+		if(params == null || params.isEmpty()) {
+			// the bulk update skips the empty params, the update counts would not match the futures
+			throw new IllegalArgumentException("the batched write requires the params: " + sql);
+		}
+		
+		CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+		if(isTransactional()) {
+			try {
+				future.complete(context.update(sql, params));
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+
+			return future;
+		}
+
+		Batch batch;
+		while(true) {
+			batch = openBatches.get(sql);
+
+			if(batch == null) {
+				batch = new Batch(sql);
+				Batch prev = openBatches.putIfAbsent(sql, batch);
+
+				if(prev == null) {
+					scheduleFlush(batch);
+				} else {
+					batch = prev;
+				}
+			}
+
+			batch.lock.lock();
+			try {
+				if(batch.closed) {
+					// flushed by other thread, open a new one
+					continue;
+				}
+
+				batch.params.add(params);
+				batch.futures.add(future);
+
+				if(batch.params.size() >= maxBatchSize) {
+					close(batch);
+					submitFlush(batch);
+				}
+			} finally {
+				batch.lock.unlock();
+			}
+
+			break;
+		}
+
+		List<Batch> pendings = pendingHolder.get();
+		if(pendings == null) {
+			pendings = new ArrayList<Batch>();
+			pendingHolder.set(pendings);
+		}
+		
+		if(pendings.isEmpty() || pendings.get(pendings.size() - 1) != batch) {
+			// drop the executed batches, the thread never beginning the transaction does not keep them
+			for(Iterator<Batch> it = pendings.iterator(); it.hasNext(); ) {
+				if(it.next().done.isDone()) {
+					it.remove();
+				}
+			}
+			
+			pendings.add(batch);
+		}
+
+		return future;
+	}
+
+	/**
+	 * execute the pending writes of all threads in the current thread and wait until the flushing batches finished.
+	 */
+	public void flush() {
+		List<Batch> batches = new ArrayList<Batch>();
+
+		for(Batch batch : openBatches.values()) {
+			batch.lock.lock();
+			try {
+				if(!batch.closed) {
+					close(batch);
+					batches.add(batch);
+				}
+			} finally {
+				batch.lock.unlock();
+			}
+		}
+
+		for(Batch batch : batches) {
+			execute(batch);
+		}
+
+		for(Batch batch : flushingBatches) {
+			batch.done.join();
+		}
+
+		pendingHolder.remove();
+	}
+
+	/**
+	 * flush all the pending writes and stop the batcher.
+	 */
+	public void shutdown() {
+		batchers.remove(this);
+		flush();
+		flusher.shutdown();
+	}
+
+	/**
+	 * execute the batches holding the pending writes of the current thread and wait until they finished.
+	 */
+	public void flushPending() {
+		List<Batch> pendings = pendingHolder.get();
+		
+		if(pendings == null) {
+			return;
+		}
+		
+		pendingHolder.remove();
+		
+		for(Batch batch : pendings) {
+			boolean owner = false;
+			
+			batch.lock.lock();
+			try {
+				if(!batch.closed) {
+					close(batch);
+					owner = true;
+				}
+			} finally {
+				batch.lock.unlock();
+			}
+			
+			if(owner) {
+				execute(batch);
+			} else {
+				batch.done.join();
+			}
+		}
+	}
+
+	/**
+	 * flush the pending writes of the current thread in all batchers,
+	 * invoked before beginning the transaction.
+	 */
+	public static void flushCurrentThread() {
+		for(WriteBatcher batcher : batchers) {
+			batcher.flushPending();
+		}
+	}
+
+	private boolean isTransactional() {
+		if(context instanceof DBContext) {
+			return ((DBContext) context).getDBFactory().isTransactional();
+		}
+
+		return TransactionManager.isTransactional();
+	}
+
+	// invoked while holding the batch lock
+	private void close(Batch batch) {
+		batch.closed = true;
+		openBatches.remove(batch.sql, batch);
+		flushingBatches.add(batch);
+	}
+
+	private void scheduleFlush(final Batch batch) {
+		flusher.schedule(new Runnable() {
+			@Override
+			public void run() {
+				batch.lock.lock();
+				try {
+					if(batch.closed) {
+						return;
+					}
+
+					close(batch);
+				} finally {
+					batch.lock.unlock();
+				}
+
+				execute(batch);
+			}
+		}, maxDelay, TimeUnit.MILLISECONDS);
+	}
+
+	private void submitFlush(final Batch batch) {
+		flusher.execute(new Runnable() {
+			@Override
+			public void run() {
+				execute(batch);
+			}
+		});
+	}
+
+	private void execute(Batch batch) {
+		try {
+			int[] counts = context.bulkUpdate(batch.sql, batch.params);
+
+			for(int i = 0; i < batch.futures.size(); i++) {
+				batch.futures.get(i).complete(counts != null && i < counts.length ? counts[i] : Statement.SUCCESS_NO_INFO);
+			}
+		} catch (Throwable e) {
+			log.error("Error while flushing the write batch: " + batch.sql + ", size: " + batch.params.size(), e);
+
+			for(CompletableFuture<Integer> future : batch.futures) {
+				future.completeExceptionally(e);
+			}
+		} finally {
+			flushingBatches.remove(batch);
+			batch.done.complete(null);
+		}
+	}
+
+	private static class Batch {
+		final String sql;
+		final List<List<Object>> params = new ArrayList<List<Object>>();
+		final List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+		final CompletableFuture<Void> done = new CompletableFuture<Void>();
+		// not the monitor of the batch, the virtual threads writing to the batch are never pinned
+		final ReentrantLock lock = new ReentrantLock();
+		boolean closed;
+
+		Batch(String sql) {
+			this.sql = sql;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.stream.cache;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.mnt.base.util.CacheManager;
+import com.mnt.base.util.CacheStats;
+import com.mnt.base.util.filequeue.Serializier;
+
+/**
+ * The near cache created by NearCacheSync.nearCache(...), the reads are served by the local cache, the put/remove/clear
+ * are applied to the local cache and broadcast to the peer nodes.
+ * 
+ * the value loaded by get(k, loader) is not broadcast, the peers load the same value from the database themselves.
+ *
+ */
+public class NearCacheManager<K, V> extends CacheManager<K, V> {
+	
+	private final String name;
+	private final CacheManager<K, V> local;
+	private final Serializier<V> serializier;
+	private final NearCacheSync sync;
+	
+	NearCacheManager(String name, CacheManager<K, V> local, Serializier<V> serializier, NearCacheSync sync) {
+		this.name = name;
+		this.local = local;
+		this.serializier = serializier;
+		this.sync = sync;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public CacheManager<K, V> getLocal() {
+		return local;
+	}
+
+	@Override
+	public V get(K k) {
+		return local.get(k);
+	}
+	
+	@Override
+	public V get(K k, Function<? super K, ? extends V> loader) {
+		return local.get(k, loader);
+	}
+
+	@Override
+	public V put(K k, V v) {
+		V prev = local.put(k, v);
+		publish(k, v);
+		return prev;
+	}
+	
+	@Override
+	public V put(K k, V v, long ttl) {
+		V prev = local.put(k, v, ttl);
+		publish(k, v);
+		return prev;
+	}
+
+	@Override
+	public V remove(K k) {
+		V prev = local.remove(k);
+		sync.publish(NearCacheSync.OP_INVALIDATE, name, k, null);
+		return prev;
+	}
+
+	@Override
+	public void clear() {
+		local.clear();
+		sync.publish(NearCacheSync.OP_CLEAR, name, null, null);
+	}
+
+	@Override
+	public boolean containsKey(Object k) {
+		return local.containsKey(k);
+	}
+
+	@Override
+	public Collection<V> values() {
+		return local.values();
+	}
+
+	@Override
+	public Set<K> keySets() {
+		return local.keySets();
+	}
+	
+	@Override
+	public void enableStats(String name) {
+		local.enableStats(name);
+	}
+	
+	@Override
+	public CacheStats getStats() {
+		return local.getStats();
+	}
+	
+	@Override
+	public void setRefreshAfter(long refreshAfter) {
+		local.setRefreshAfter(refreshAfter);
+	}
+	
+	@Override
+	public void setNegativeTtl(long negativeTtl) {
+		local.setNegativeTtl(negativeTtl);
+	}
+	
+	private void publish(K k, V v) {
+		if(serializier == null) {
+			sync.publish(NearCacheSync.OP_INVALIDATE, name, k, null);
+		} else {
+			sync.publish(NearCacheSync.OP_UPDATE, name, k, serializier.serialize(v));
+		}
+	}
+	
+	/**
+	 * apply the change received from the peer to the local cache, without broadcasting.
+	 */
+	@SuppressWarnings("unchecked")
+	void applyRemote(byte op, Object key, byte[] value) {
+		switch(op) {
+			case NearCacheSync.OP_UPDATE:
+				if(serializier != null && value != null) {
+					local.put((K) key, serializier.deserialize(value));
+				} else {
+					local.remove((K) key);
+				}
+				break;
+			case NearCacheSync.OP_INVALIDATE:
+				local.remove((K) key);
+				break;
+			case NearCacheSync.OP_CLEAR:
+				local.clear();
+				break;
+			default:
+				break;
+		}
+	}
+}
@@ -0,0 +1,382 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.stream.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.mnt.base.stream.client.NStreamClient;
+import com.mnt.base.stream.comm.PacketProcessor;
+import com.mnt.base.stream.comm.StreamUtils;
+import com.mnt.base.stream.dtd.StreamPacket;
+import com.mnt.base.stream.netty.Connection;
+import com.mnt.base.stream.server.ConnectionManager;
+import com.mnt.base.stream.server.ServerPacketProcessorManager;
+import com.mnt.base.util.CacheManager;
+import com.mnt.base.util.filequeue.Serializier;
+
+/**
+ * Synchronize the near caches of the stream nodes, the local cache changes are broadcast to the peers as the compact
+ * byte array stream packets over the existing stream connections, so the peers evict (or update) the entries without 
+ * going to the database.
+ * 
+ * the nodes are connected as the star: the app nodes attach their NStreamClient by attachClient(client), which subscribes
+ * the client connection at the hub, the hub node calls attachServer(), it applies the received message and relays it to
+ * the other subscribed connections, the other stream clients of the hub never get the near cache messages.
+ * 
+ * message: [op 1][origin node 8][name len 2][name][key type 1][key len 4 (string and object key only)][key][value]
+ * 
+ * the messages may be lost while disconnected, and may be applied out of order by the multiple packet processor threads,
+ * the invalidation is not affected by the order but the update is, so:
+ * 1. keep the expiration of the local cache as the safety net.
+ * 2. invoke clearLocalCaches() and subscribe(client) in the EventType.Authenticated event handler of the reconnected client,
+ *    the hub drops the subscription with the closed connection.
+ * 3. disable the packet cache queue (disable_packet_cache_queue) or use one processor thread with the update mode.
+ * 
+ *
+ */
+public class NearCacheSync implements PacketProcessor {
+	
+	private static final Log log = LogFactory.getLog(NearCacheSync.class);
+	
+	public static final String PROCESSOR_IDENTIFIER = "__near_cache";
+	
+	static final byte OP_INVALIDATE = 1;
+	static final byte OP_UPDATE = 2;
+	static final byte OP_CLEAR = 3;
+	// sent by the client to the hub only, never relayed
+	private static final byte OP_SUBSCRIBE = 4;
+	
+	private static final byte KEY_NONE = 0;
+	private static final byte KEY_LONG = 1;
+	private static final byte KEY_INT = 2;
+	private static final byte KEY_STRING = 3;
+	private static final byte KEY_OBJECT = 4;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final NearCacheSync instance = new NearCacheSync();
+	
+	// drop the message echoed back to the origin node
+	private final long nodeId = UUID.randomUUID().getMostSignificantBits();
+	
+	private final Map<String, NearCacheManager<?, ?>> caches = new ConcurrentHashMap<String, NearCacheManager<?, ?>>();
+	private final List<NStreamClient> clients = new CopyOnWriteArrayList<NStreamClient>();
+	// the hub connections which subscribed the near cache messages
+	private final Set<Connection> subscribers = ConcurrentHashMap.newKeySet();
+	private volatile boolean relay;
+	
+	private NearCacheSync() {
+		// empty
+	}
+	
+	public static NearCacheSync getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * publish the changes to the server of the client, and apply the changes received from it.
+	 * 
+	 * @param client
+	 */
+	public void attachClient(NStreamClient client) {
+		if(!clients.contains(client)) {
+			client.addPacketProcessor(this);
+			clients.add(client);
+			subscribe(client);
+		}
+	}
+	
+	/**
+	 * subscribe the near cache messages at the hub through the client connection, it is queued by the client 
+	 * while disconnected. 
+	 * 
+	 * @param client
+	 */
+	public void subscribe(NStreamClient client) {
+		client.deliver(PROCESSOR_IDENTIFIER, encode(OP_SUBSCRIBE, "", null, null));
+	}
+	
+	public void detachClient(NStreamClient client) {
+		clients.remove(client);
+	}
+	
+	/**
+	 * act as the hub: publish the changes to the subscribed connections, apply the changes received and relay them to 
+	 * the other subscribed connections.
+	 */
+	public void attachServer() {
+		ServerPacketProcessorManager.getInstance().addProcessor(this);
+		relay = true;
+	}
+	
+	/**
+	 * wrap the local cache as the near cache, the invalidations are broadcast to the peer caches with the same name.
+	 * 
+	 * @param name the cache name, the same on all the nodes
+	 * @param local
+	 * @return
+	 */
+	public <K, V> NearCacheManager<K, V> nearCache(String name, CacheManager<K, V> local) {
+		return nearCache(name, local, null);
+	}
+	
+	/**
+	 * wrap the local cache as the near cache, the put values are broadcast (serialized by the serializier) and put into
+	 * the peer caches with the same name, the removals are broadcast as the invalidations.
+	 * 
+	 * @param name the cache name, the same on all the nodes
+	 * @param local
+	 * @param serializier null to broadcast the put as the invalidation
+	 * @return
+	 */
+	public <K, V> NearCacheManager<K, V> nearCache(String name, CacheManager<K, V> local, Serializier<V> serializier) {
+		if(name == null || name.getBytes(UTF8).length > 0xffff) {
+			throw new IllegalArgumentException("Invalid near cache name: " + name);
+		}
+		
+		NearCacheManager<K, V> cache = new NearCacheManager<K, V>(name, local, serializier, this);
+		
+		if(caches.putIfAbsent(name, cache) != null) {
+			throw new IllegalStateException("The near cache is registered already: " + name);
+		}
+		
+		return cache;
+	}
+	
+	public void removeNearCache(String name) {
+		caches.remove(name);
+	}
+	
+	/**
+	 * clear the local caches without broadcasting, for the client reconnected to the server, which may miss the messages
+	 * while disconnected.
+	 */
+	public void clearLocalCaches() {
+		for(NearCacheManager<?, ?> cache : caches.values()) {
+			cache.getLocal().clear();
+		}
+	}
+	
+	void publish(byte op, String name, Object key, byte[] value) {
+		byte[] message;
+		try {
+			message = encode(op, name, key, value);
+		} catch (RuntimeException e) {
+			log.error("Error while encoding the near cache message of cache: " + name + ", key: " + key, e);
+			return;
+		}
+		
+		broadcast(message, null, true);
+	}
+	
+	/**
+	 * 
+	 * @param message
+	 * @param except the connection the message comes from
+	 * @param toClients false to relay the received message only to the server connections, never back to the upstream
+	 */
+	private void broadcast(byte[] message, Connection except, boolean toClients) {
+		StreamPacket packet = StreamPacket.valueOf("0", PROCESSOR_IDENTIFIER, message);
+		
+		if(toClients) {
+			for(NStreamClient client : clients) {
+				if(!client.deliver(packet) && log.isDebugEnabled()) {
+					log.debug("Drop the near cache message, the client is disconnected.");
+				}
+			}
+		}
+		
+		if(relay) {
+			// the packet source is read only while encoding, shared by all the connections
+			for(Connection connection : subscribers) {
+				if(connection.isClosed()) {
+					subscribers.remove(connection);
+				} else if(connection != except) {
+					connection.deliver(packet);
+				}
+			}
+		}
+	}
+
+	@Override
+	public String processorIdentifier() {
+		return PROCESSOR_IDENTIFIER;
+	}
+
+	@Override
+	public Object prcocessPacket(String requestId, String methodIdentifier, Object parameters) {
+		if(!(parameters instanceof byte[])) {
+			log.warn("Drop the invalid near cache message: " + parameters);
+			return null;
+		}
+		
+		byte[] message = (byte[]) parameters;
+		
+		if(message.length > 0 && message[0] == OP_SUBSCRIBE) {
+			if(relay) {
+				// the current connection is set by ServerPacketProcessorManager
+				Connection connection = ConnectionManager.getCurrentConnection();
+				
+				if(connection != null) {
+					subscribers.add(connection);
+				}
+			}
+			
+			return null;
+		}
+		
+		try {
+			if(!apply(message)) {
+				return null;
+			}
+		} catch (RuntimeException e) {
+			log.error("Error while applying the near cache message, length: " + message.length, e);
+		}
+		
+		if(relay) {
+			// the current connection is set by ServerPacketProcessorManager, do not send back to the origin
+			broadcast(message, ConnectionManager.getCurrentConnection(), false);
+		}
+		
+		// no response
+		return null;
+	}
+	
+	private byte[] encode(byte op, String name, Object key, byte[] value) {
+		byte[] nameBytes = name.getBytes(UTF8);
+		
+		byte keyType;
+		byte[] keyBytes = null;
+		int keyLen;
+		
+		if(key == null) {
+			keyType = KEY_NONE;
+			keyLen = 0;
+		} else if(key instanceof Long) {
+			keyType = KEY_LONG;
+			keyLen = 8;
+		} else if(key instanceof Integer) {
+			keyType = KEY_INT;
+			keyLen = 4;
+		} else {
+			if(key instanceof String) {
+				keyType = KEY_STRING;
+				keyBytes = ((String) key).getBytes(UTF8);
+			} else {
+				keyType = KEY_OBJECT;
+				keyBytes = StreamUtils.getSerializeHelper().serialize(key);
+			}
+			
+			keyLen = 4 + keyBytes.length;
+		}
+		
+		ByteBuffer bb = ByteBuffer.allocate(1 + 8 + 2 + nameBytes.length + 1 + keyLen + (value == null ? 0 : value.length));
+		bb.put(op).putLong(nodeId).putShort((short) nameBytes.length).put(nameBytes).put(keyType);
+		
+		switch(keyType) {
+			case KEY_LONG:
+				bb.putLong((Long) key);
+				break;
+			case KEY_INT:
+				bb.putInt((Integer) key);
+				break;
+			case KEY_STRING:
+			case KEY_OBJECT:
+				bb.putInt(keyBytes.length).put(keyBytes);
+				break;
+			default:
+				break;
+		}
+		
+		if(value != null) {
+			bb.put(value);
+		}
+		
+		return bb.array();
+	}
+	
+	/**
+	 * 
+	 * @param message
+	 * @return false if the message is sent by this node
+	 */
+	private boolean apply(byte[] message) {
+		ByteBuffer bb = ByteBuffer.wrap(message);
+		
+		byte op = bb.get();
+		if(bb.getLong() == nodeId) {
+			return false;
+		}
+		
+		byte[] nameBytes = new byte[bb.getShort() & 0xffff];
+		bb.get(nameBytes);
+		String name = new String(nameBytes, UTF8);
+		
+		Object key = null;
+		byte[] bs;
+		
+		switch(bb.get()) {
+			case KEY_LONG:
+				key = bb.getLong();
+				break;
+			case KEY_INT:
+				key = bb.getInt();
+				break;
+			case KEY_STRING:
+				bs = new byte[bb.getInt()];
+				bb.get(bs);
+				key = new String(bs, UTF8);
+				break;
+			case KEY_OBJECT:
+				bs = new byte[bb.getInt()];
+				bb.get(bs);
+				key = StreamUtils.getSerializeHelper().deserialize(bs);
+				break;
+			default:
+				break;
+		}
+		
+		byte[] value = null;
+		if(bb.hasRemaining()) {
+			value = new byte[bb.remaining()];
+			bb.get(value);
+		}
+		
+		NearCacheManager<?, ?> cache = caches.get(name);
+		
+		// relay it even if the cache is not used by the hub itself
+		if(cache != null) {
+			cache.applyRemote(op, key, value);
+		}
+		
+		return true;
+	}
+}
@@ -20,14 +20,33 @@
 
 package com.mnt.base.util;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.InvalidParameterException;
-import java.util.ArrayList;
+import java.util.AbstractCollection;
 import java.util.Collection;
-import java.util.LinkedHashSet;
-import java.util.List;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.mnt.base.util.filequeue.Serializier;
 
 /**
  * The cache manager implementation for cache support. (It would be implmenets with the memcache in the future.)
@@ -38,16 +57,110 @@ import java.util.concurrent.ConcurrentHashMap;
  *
  */
 public abstract class CacheManager<K, V> {
+	
+	private static final Log log = LogFactory.getLog(CacheManager.class);
+	
+	private static final int NEGATIVE_CAPACITY = 1 << 16;
+	// the pending background refreshes, the ones over it are discarded
+	private static final int REFRESH_QUEUE_CAPACITY = 1024;
+	
+	private static volatile Executor refresher;
+	private static final ReentrantLock refresherLock = new ReentrantLock();
+	
+	private final ConcurrentHashMap<K, CompletableFuture<V>> loadings = new ConcurrentHashMap<K, CompletableFuture<V>>();
+	private volatile long refreshAfter;
+	private volatile CacheManager<K, Boolean> negativeCache;
+	private volatile CacheStats stats;
 
 	public static <K, V> CacheManager<K, V> getInstance(){
 		return new MemCacherManager<K, V>();
 	}
 	
+	/**
+	 * the size bounded LRU cache, safe for concurrent use, the eldest entries are evicted by the writing thread.
+	 * 
+	 * @param capacity
+	 * @return
+	 */
 	public static <K, V> CacheManager<K, V> getInstance(int capacity){
 		if(capacity < 1){
 			throw new InvalidParameterException("The capacity must be over zero.");
 		}
-		return new CapacityCacherManager<K, V>(capacity);
+		return new SegmentedCacherManager<K, V>(capacity, 0, 0);
+	}
+	
+	/**
+	 * the cache with the optional capacity bound and expiration, safe for concurrent use.
+	 * 
+	 * the expired entries are never returned, and reclaimed by the timer wheel while the cache is accessed.
+	 * 
+	 * @param capacity the max entries (LRU evicted), 0 for unbounded
+	 * @param expireAfterWrite the milliseconds the entry lives after put, 0 to disable, put(k, v, ttl) overrides it per entry
+	 * @param expireAfterAccess the milliseconds the entry lives after the last get or put, 0 to disable
+	 * @return
+	 */
+	public static <K, V> CacheManager<K, V> getInstance(int capacity, long expireAfterWrite, long expireAfterAccess){
+		if(capacity < 0 || expireAfterWrite < 0 || expireAfterAccess < 0){
+			throw new InvalidParameterException("The capacity and expiration can not be negative.");
+		}
+		return new SegmentedCacherManager<K, V>(capacity, TimeUnit.MILLISECONDS.toNanos(expireAfterWrite), TimeUnit.MILLISECONDS.toNanos(expireAfterAccess));
+	}
+	
+	/**
+	 * the cache keyed by the primitive long, get(long)/put(long, v) do not box the key and no map node is allocated per entry.
+	 * 
+	 * @param capacity the max entries (CLOCK evicted), 0 for unbounded
+	 * @return
+	 */
+	public static <V> LongCacheManager<V> getLongKeyInstance(int capacity){
+		if(capacity < 0){
+			throw new InvalidParameterException("The capacity can not be negative.");
+		}
+		return new LongCacheManager<V>(capacity);
+	}
+	
+	/**
+	 * the cache keyed by the primitive int, get(int)/put(int, v) do not box the key and no map node is allocated per entry.
+	 * 
+	 * @param capacity the max entries (CLOCK evicted), 0 for unbounded
+	 * @return
+	 */
+	public static <V> IntCacheManager<V> getIntKeyInstance(int capacity){
+		if(capacity < 0){
+			throw new InvalidParameterException("The capacity can not be negative.");
+		}
+		return new IntCacheManager<V>(capacity);
+	}
+	
+	/**
+	 * the off heap cache kept in the direct buffers, the values are stored as the bytes serialized by the serializier.
+	 * 
+	 * @param maxBytes the total bytes of the off heap slabs, the eldest entries are dropped once exceeded
+	 * @param serializier
+	 * @return
+	 */
+	public static <K, V> CacheManager<K, V> getOffHeapInstance(long maxBytes, Serializier<V> serializier){
+		return getOffHeapInstance(maxBytes, serializier, null);
+	}
+	
+	/**
+	 * the off heap cache kept in the memory mapped files under the directory (scratch files deleted on exit).
+	 * 
+	 * @param maxBytes the total bytes of the off heap slabs, the eldest entries are dropped once exceeded
+	 * @param serializier
+	 * @param dir null to use the direct buffers
+	 * @return
+	 */
+	public static <K, V> CacheManager<K, V> getOffHeapInstance(long maxBytes, Serializier<V> serializier, File dir){
+		if(maxBytes < 1){
+			throw new InvalidParameterException("The max bytes must be over zero.");
+		}
+		
+		try {
+			return new OffHeapCacherManager<K, V>(maxBytes, serializier, dir);
+		} catch (IOException e) {
+			throw new RuntimeException("Error while creating the off heap cache slabs in: " + dir, e);
+		}
 	}
 	
 	private static class MemCacherManager<K, V> extends CacheManager<K, V>{
@@ -56,21 +169,29 @@ public abstract class CacheManager<K, V> {
 		
 		@Override
 		public V get(K k) {
+			return recordGet(cacherMap.get(k));
+		}
+		
+		@Override
+		V peek(K k) {
 			return cacherMap.get(k);
 		}
 
 		@Override
 		public V put(K k, V v) {
+			clearNegative(k);
 			return cacherMap.put(k, v);
 		}
 
 		@Override
 		public V remove(K k) {
+			clearNegative(k);
 			return cacherMap.remove(k);
 		}
 
 		@Override
 		public void clear() {
+			clearNegatives();
 			cacherMap.clear();
 		}
 
@@ -90,97 +211,419 @@ public abstract class CacheManager<K, V> {
 		}
 	}
 	
-	private static class CapacityCacherManager<K, V> extends CacheManager<K, V>{
-
-		private Map<K, V> cacherMap;
-		private int capacity;
+	/**
+	 * the concurrent cache with the optional capacity bound and expiration.
+	 * 
+	 * the keys are striped into segments by hash, each segment keeps its own LRU order and timer wheel guarded by 
+	 * the segment lock. the entries exceeding the segment share of the capacity are evicted by the writing thread, 
+	 * the expired entries are reclaimed while the segment timer wheel advances on the access of the segment, 
+	 * so neither of them scans the whole map or spawns a thread.
+	 * 
+	 * the lookup never locks: the entries are kept in one ConcurrentHashMap, the reader only reorders the entry and 
+	 * advances the wheel if it gets the segment lock immediately. the expired entry is never returned even if it is 
+	 * not reclaimed yet. the writes of the same key are serialized by the segment lock.
+	 * 
+	 * the capacity is rounded up to the multiple of the segment count.
+	 */
+	private static class SegmentedCacherManager<K, V> extends CacheManager<K, V>{
+		
+		private static final int MIN_SEGMENT_CAPACITY = 16;
 		
-		private LinkedHashSet<K> cachekeys;
-		private void touch(K k) {
-			// skip the times while clean
-			if(readyFlag) {
-				cachekeys.add(k);
+		private final ConcurrentHashMap<K, Node<K, V>> cacherMap;
+		private final Segment<K, V>[] segments;
+		private final int segmentMask;
+		private final boolean bounded;
+		private final long expireAfterWrite;
+		private final long expireAfterAccess;
+		
+		/**
+		 * 
+		 * @param capacity 0 for unbounded
+		 * @param expireAfterWrite nanoseconds, 0 to disable
+		 * @param expireAfterAccess nanoseconds, 0 to disable
+		 */
+		@SuppressWarnings("unchecked")
+		private SegmentedCacherManager(int capacity, long expireAfterWrite, long expireAfterAccess){
+			this.bounded = capacity > 0;
+			this.expireAfterWrite = expireAfterWrite;
+			this.expireAfterAccess = expireAfterAccess;
+			
+			int bound = bounded ? capacity : Integer.MAX_VALUE;
+			int maxSegments = Runtime.getRuntime().availableProcessors() * 2;
+			int segmentCount = 1;
+			while(segmentCount < maxSegments && bound / (segmentCount * 2) >= MIN_SEGMENT_CAPACITY) {
+				segmentCount <<= 1;
 			}
 			
-			if(cachekeys.size() > capacity) {
-				startClean();
+			int segmentCapacity = bounded ? (capacity + segmentCount - 1) / segmentCount : Integer.MAX_VALUE;
+			long now = System.nanoTime();
+			
+			this.cacherMap = new ConcurrentHashMap<K, Node<K, V>>(bounded ? Math.min(capacity, 1 << 16) * 4 / 3 + 1 : 16);
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			Segment<K, V>[] segments = new Segment[segmentCount];
+			this.segments = segments;
+			this.segmentMask = segmentCount - 1;
+			
+			for(int i = 0; i < segmentCount; i++) {
+				segments[i] = new Segment<K, V>(segmentCapacity, now);
 			}
 		}
 		
-		boolean readyFlag = true;
-		public void startClean() {
-			if(readyFlag) {
-				readyFlag = false;
-				cleanExceedKeys();
+		private Segment<K, V> segmentFor(Object k) {
+			int h = k.hashCode();
+			h ^= (h >>> 16);
+			return segments[(h * 0x9E3779B9 >>> 16) & segmentMask];
+		}
+		
+		@Override
+		long writeNanos(K k) {
+			Node<K, V> node = cacherMap.get(k);
+			return node == null ? -1 : node.writeTs;
+		}
+		
+		private long deadline(Node<K, V> node) {
+			long deadline = Long.MAX_VALUE;
+			
+			if(node.ttl > 0) {
+				deadline = node.writeTs + node.ttl;
 			}
+			
+			if(expireAfterAccess > 0) {
+				deadline = Math.min(deadline, node.accessTs + expireAfterAccess);
+			}
+			
+			return deadline;
 		}
 		
-		public void cleanExceedKeys() {
-			new Thread() {
-				public void run() {
-					int keepSize = capacity / 3;
-					
-					List<K> kList = new ArrayList<K>();
-					kList.addAll(cachekeys);
-					//Collections.reverse(kList);
-					
-					K k;
-					for(int i = 0; i < keepSize; i++) {
-						k = kList.get(i);
-						cachekeys.remove(k);
-						cacherMap.remove(k);
-					}
-					kList.clear();
-					readyFlag = true;
-				}
-			}.start();
+		private boolean isExpired(Node<K, V> node, long now) {
+			return (node.ttl > 0 && now - node.writeTs >= node.ttl) 
+					|| (expireAfterAccess > 0 && now - node.accessTs >= expireAfterAccess);
 		}
 		
-		private CapacityCacherManager(int capacity){
-			this.capacity = (int)(capacity * 1.5);
-			this.cacherMap = new ConcurrentHashMap<K, V>();
-			cachekeys = new LinkedHashSet<K>();
+		private boolean canExpire(Node<K, V> node) {
+			return node.ttl > 0 || expireAfterAccess > 0;
 		}
 		
 		@Override
 		public V get(K k) {
-			V v = cacherMap.get(k);
-			if(v != null){
-				touch(k);
+			return recordGet(peek(k));
+		}
+		
+		@Override
+		V peek(K k) {
+			Node<K, V> node = cacherMap.get(k);
+			
+			if(node == null) {
+				return null;
 			}
 			
-			return v;
+			long now = 0;
+			boolean expired = false;
+			if(canExpire(node)) {
+				now = System.nanoTime();
+				expired = isExpired(node, now);
+				
+				if(!expired && expireAfterAccess > 0) {
+					// the timer is rescheduled lazily while it expires in the wheel
+					node.accessTs = now;
+				}
+			}
+			
+			if(expired || bounded) {
+				Segment<K, V> segment = segmentFor(k);
+				if(segment.lock.tryLock()) {
+					try {
+						if(expired) {
+							if(node.linked) {
+								recordExpiration();
+							}
+							
+							removeNode(segment, node);
+						} else {
+							segment.moveToTail(node);
+						}
+						
+						if(now != 0) {
+							segment.advance(this, now);
+						}
+					} finally {
+						segment.lock.unlock();
+					}
+				}
+			}
+			
+			return expired ? null : node.value;
 		}
 
 		@Override
 		public V put(K k, V v) {
-			touch(k);
-			return cacherMap.put(k, v);
+			return putNode(k, v, expireAfterWrite);
+		}
+		
+		@Override
+		public V put(K k, V v, long ttl) {
+			return putNode(k, v, ttl > 0 ? TimeUnit.MILLISECONDS.toNanos(ttl) : 0);
+		}
+		
+		private V putNode(K k, V v, long ttlNanos) {
+			if(v == null) {
+				throw new NullPointerException("The cache value can not be null.");
+			}
+			
+			clearNegative(k);
+			
+			Segment<K, V> segment = segmentFor(k);
+			segment.lock.lock();
+			try {
+				long now = System.nanoTime();
+				Node<K, V> node = cacherMap.get(k);
+				V prev = null;
+				
+				if(node != null) {
+					if(canExpire(node) && isExpired(node, now)) {
+						recordExpiration();
+						removeNode(segment, node);
+						node = null;
+					} else {
+						prev = node.value;
+					}
+				}
+				
+				if(node == null) {
+					node = new Node<K, V>(k, v);
+					cacherMap.put(k, node);
+					segment.append(node);
+				} else {
+					node.value = v;
+					segment.moveToTail(node);
+				}
+				
+				node.ttl = ttlNanos;
+				node.writeTs = now;
+				node.accessTs = now;
+				
+				if(canExpire(node)) {
+					node.deadline = deadline(node);
+					segment.wheel.schedule(node);
+				} else {
+					segment.wheel.deschedule(node);
+				}
+				
+				// amortized eviction, at most one entry per put in the steady state
+				while(segment.size > segment.capacity) {
+					recordEviction();
+					removeNode(segment, segment.head);
+				}
+				
+				segment.advance(this, now);
+				
+				return prev;
+			} finally {
+				segment.lock.unlock();
+			}
 		}
 		
 		@Override
 		public V remove(K k) {
-			return cacherMap.remove(k);
+			clearNegative(k);
+			
+			Segment<K, V> segment = segmentFor(k);
+			segment.lock.lock();
+			try {
+				Node<K, V> node = cacherMap.get(k);
+				
+				if(node == null) {
+					return null;
+				}
+				
+				removeNode(segment, node);
+				return canExpire(node) && isExpired(node, System.nanoTime()) ? null : node.value;
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+		
+		// invoked with the segment lock held
+		private void removeNode(Segment<K, V> segment, Node<K, V> node) {
+			if(node.linked) {
+				segment.unlink(node);
+				segment.wheel.deschedule(node);
+				cacherMap.remove(node.key, node);
+			}
+		}
+		
+		// invoked with the segment lock held, by the wheel of the segment
+		private void expire(Segment<K, V> segment, Node<K, V> node, long now) {
+			if(!node.linked) {
+				return;
+			}
+			
+			if(isExpired(node, now)) {
+				recordExpiration();
+				segment.unlink(node);
+				cacherMap.remove(node.key, node);
+			} else {
+				// accessed or rewritten after scheduling
+				node.deadline = deadline(node);
+				segment.wheel.schedule(node);
+			}
 		}
 
 		@Override
 		public void clear() {
-			cacherMap.clear();
+			clearNegatives();
+			
+			for(Segment<K, V> segment : segments) {
+				segment.lock.lock();
+				try {
+					while(segment.head != null) {
+						removeNode(segment, segment.head);
+					}
+				} finally {
+					segment.lock.unlock();
+				}
+			}
 		}
 		
 		@Override
 		public boolean containsKey(Object k) {
-			return cacherMap.containsKey(k);
+			Node<K, V> node = cacherMap.get(k);
+			return node != null && !(canExpire(node) && isExpired(node, System.nanoTime()));
 		}
 
+		/**
+		 * the read only view, may include the entries expired but not reclaimed yet.
+		 */
 		@Override
 		public Collection<V> values() {
-			throw new java.lang.UnsupportedOperationException("CapacityCacherManager can not retrieve all values.");
+			final Collection<Node<K, V>> nodes = cacherMap.values();
+			
+			return new AbstractCollection<V>() {
+				@Override
+				public Iterator<V> iterator() {
+					final Iterator<Node<K, V>> it = nodes.iterator();
+					
+					return new Iterator<V>() {
+						@Override
+						public boolean hasNext() {
+							return it.hasNext();
+						}
+
+						@Override
+						public V next() {
+							return it.next().value;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return nodes.size();
+				}
+			};
 		}
 
+		/**
+		 * the read only view, may include the entries expired but not reclaimed yet.
+		 */
 		@Override
 		public Set<K> keySets() {
-			throw new java.lang.UnsupportedOperationException("CapacityCacherManager can not retrieve all keyset.");
+			return Collections.unmodifiableSet(cacherMap.keySet());
+		}
+		
+		private static class Node<K, V> extends TimerWheel.Timer {
+			final K key;
+			volatile V value;
+			
+			// System.nanoTime()
+			volatile long writeTs;
+			volatile long accessTs;
+			// the write expiration nanoseconds of the entry, 0 for none
+			volatile long ttl;
+			
+			// guarded by the segment lock
+			Node<K, V> prev;
+			Node<K, V> next;
+			boolean linked;
+			
+			Node(K key, V value) {
+				this.key = key;
+				this.value = value;
+			}
+		}
+		
+		/**
+		 * the LRU order and the timer wheel of the segment, head is the eldest, all the methods are invoked with the lock held.
+		 */
+		private static class Segment<K, V> {
+			final ReentrantLock lock = new ReentrantLock();
+			final int capacity;
+			final TimerWheel wheel;
+			
+			Node<K, V> head;
+			Node<K, V> tail;
+			int size;
+			
+			Segment(int capacity, long now) {
+				this.capacity = capacity;
+				this.wheel = new TimerWheel(now);
+			}
+			
+			@SuppressWarnings("unchecked")
+			void advance(final SegmentedCacherManager<K, V> cache, final long now) {
+				wheel.advance(now, new Consumer<TimerWheel.Timer>() {
+					@Override
+					public void accept(TimerWheel.Timer timer) {
+						cache.expire(Segment.this, (Node<K, V>) timer, now);
+					}
+				});
+			}
+			
+			void append(Node<K, V> node) {
+				node.prev = tail;
+				node.next = null;
+				
+				if(tail == null) {
+					head = node;
+				} else {
+					tail.next = node;
+				}
+				
+				tail = node;
+				node.linked = true;
+				size++;
+			}
+			
+			void unlink(Node<K, V> node) {
+				if(!node.linked) {
+					return;
+				}
+				
+				if(node.prev == null) {
+					head = node.next;
+				} else {
+					node.prev.next = node.next;
+				}
+				
+				if(node.next == null) {
+					tail = node.prev;
+				} else {
+					node.next.prev = node.prev;
+				}
+				
+				node.prev = null;
+				node.next = null;
+				node.linked = false;
+				size--;
+			}
+			
+			void moveToTail(Node<K, V> node) {
+				// the node may be removed after the lookup
+				if(node.linked && node != tail) {
+					unlink(node);
+					append(node);
+				}
+			}
 		}
 	}
 	
@@ -188,6 +631,20 @@ public abstract class CacheManager<K, V> {
 	
 	public abstract V put(K k, V v);
 	
+	/**
+	 * put the entry which expires after the ttl milliseconds, 0 for no write expiration of the entry.
+	 * 
+	 * supported by the caches created with getInstance(capacity) and getInstance(capacity, expireAfterWrite, expireAfterAccess).
+	 * 
+	 * @param k
+	 * @param v
+	 * @param ttl
+	 * @return
+	 */
+	public V put(K k, V v, long ttl) {
+		throw new UnsupportedOperationException("The cache does not support the entry expiration.");
+	}
+	
 	public abstract V remove(K k);
 	
 	public abstract void clear();
@@ -198,6 +655,294 @@ public abstract class CacheManager<K, V> {
 	
 	public abstract Set<K> keySets();
 	
+	/**
+	 * get the cached value, or load it by the loader on miss and cache it.
+	 * 
+	 * only one load runs for the same key at a time, the concurrent callers wait for its result (the loader exception
+	 * is thrown to all of them and not cached). the null loaded is cached as absent for negativeTtl if it is set.
+	 * if refreshAfter is set, the value older than it is returned and reloaded in the background once.
+	 * 
+	 * the loader must not get the same key from this cache.
+	 * 
+	 * @param k
+	 * @param loader
+	 * @return null if the loader returns null
+	 */
+	public V get(K k, Function<? super K, ? extends V> loader) {
+		V v = get(k);
+		
+		if(v != null) {
+			if(refreshAfter > 0) {
+				long writeTs = writeNanos(k);
+				if(writeTs != -1 && System.nanoTime() - writeTs >= refreshAfter) {
+					refresh(k, loader);
+				}
+			}
+			
+			return v;
+		}
+		
+		CacheManager<K, Boolean> negatives = negativeCache;
+		if(negatives != null && negatives.get(k) != null) {
+			return null;
+		}
+		
+		CompletableFuture<V> loading = new CompletableFuture<V>();
+		CompletableFuture<V> inflight = loadings.putIfAbsent(k, loading);
+		
+		if(inflight != null) {
+			return await(inflight);
+		}
+		
+		try {
+			// loaded by the other caller just before
+			v = peek(k);
+			
+			if(v == null) {
+				v = load(k, loader);
+				cacheLoaded(k, v);
+			}
+			
+			loading.complete(v);
+			return v;
+		} catch (RuntimeException | Error e) {
+			loading.completeExceptionally(e);
+			throw e;
+		} finally {
+			loadings.remove(k, loading);
+		}
+	}
+	
+	private void refresh(final K k, final Function<? super K, ? extends V> loader) {
+		final CompletableFuture<V> loading = new CompletableFuture<V>();
+		
+		if(loadings.putIfAbsent(k, loading) != null) {
+			return;
+		}
+		
+		try {
+			getRefresher().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						V v = load(k, loader);
+						cacheLoaded(k, v);
+						loading.complete(v);
+					} catch (Throwable e) {
+						// keep serving the current value until it expires
+						log.warn("Error while refreshing the cache key: " + k, e);
+						loading.completeExceptionally(e);
+					} finally {
+						loadings.remove(k, loading);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the refresh queue is full, discard the refresh and keep serving the current value
+			if(log.isDebugEnabled()) {
+				log.debug("Discard the refresh of the cache key: " + k + ", the refresh queue is full.");
+			}
+			
+			loadings.remove(k, loading);
+			loading.complete(peek(k));
+		} catch (RuntimeException e) {
+			loadings.remove(k, loading);
+			loading.completeExceptionally(e);
+		}
+	}
+	
+	private V load(K k, Function<? super K, ? extends V> loader) {
+		CacheStats s = stats;
+		if(s == null) {
+			return loader.apply(k);
+		}
+		
+		long startTs = System.nanoTime();
+		boolean loaded = false;
+		try {
+			V v = loader.apply(k);
+			loaded = true;
+			return v;
+		} finally {
+			s.recordLoad(System.nanoTime() - startTs, loaded);
+		}
+	}
+	
+	private void cacheLoaded(K k, V v) {
+		if(v != null) {
+			put(k, v);
+		} else {
+			remove(k);
+			
+			CacheManager<K, Boolean> negatives = negativeCache;
+			if(negatives != null) {
+				negatives.put(k, Boolean.TRUE);
+			}
+		}
+	}
+	
+	private V await(CompletableFuture<V> loading) {
+		try {
+			return loading.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			
+			throw e;
+		}
+	}
+	
+	/**
+	 * get the value without recording the statistics.
+	 * 
+	 * @param k
+	 * @return
+	 */
+	V peek(K k) {
+		return get(k);
+	}
+	
+	/**
+	 * record the hit or miss of the lookup while the statistics enabled.
+	 * 
+	 * @param v the value found, null for miss
+	 * @return v
+	 */
+	final V recordGet(V v) {
+		CacheStats s = stats;
+		if(s != null) {
+			s.recordGet(v != null);
+		}
+		
+		return v;
+	}
+	
+	final boolean hasNegativeCache() {
+		return negativeCache != null;
+	}
+	
+	/**
+	 * forget the cached absence of the key, invoked by the implementations while the key is put or removed,
+	 * so the next get(k, loader) calls the loader again.
+	 * 
+	 * @param k
+	 */
+	final void clearNegative(K k) {
+		CacheManager<K, Boolean> negatives = negativeCache;
+		if(negatives != null) {
+			negatives.remove(k);
+		}
+	}
+	
+	final void clearNegatives() {
+		CacheManager<K, Boolean> negatives = negativeCache;
+		if(negatives != null) {
+			negatives.clear();
+		}
+	}
+	
+	final void recordEviction() {
+		CacheStats s = stats;
+		if(s != null) {
+			s.evictions.increment();
+		}
+	}
+	
+	final void recordExpiration() {
+		CacheStats s = stats;
+		if(s != null) {
+			s.expirations.increment();
+		}
+	}
+	
+	/**
+	 * record the hits, misses, loads, evictions and expirations of the cache, and register it to CacheRegistry by the name.
+	 * 
+	 * @param name the unique cache name
+	 */
+	public void enableStats(String name) {
+		if(stats == null) {
+			stats = new CacheStats(name, this);
+		}
+		
+		CacheRegistry.register(name, this);
+	}
+	
+	/**
+	 * the live statistics, null if not enabled by enableStats(name).
+	 * 
+	 * @return
+	 */
+	public CacheStats getStats() {
+		return stats;
+	}
+	
+	/**
+	 * the System.nanoTime() the value of the key was put, -1 if absent or not tracked by the implementation.
+	 * 
+	 * @param k
+	 * @return
+	 */
+	long writeNanos(K k) {
+		return -1;
+	}
+	
+	/**
+	 * reload the value older than the milliseconds in the background while get(k, loader) hits it, 0 to disable.
+	 * 
+	 * set it less than the expiration, so the hot keys are refreshed before expired, supported by the caches 
+	 * created with getInstance(capacity) and getInstance(capacity, expireAfterWrite, expireAfterAccess).
+	 * 
+	 * @param refreshAfter
+	 */
+	public void setRefreshAfter(long refreshAfter) {
+		this.refreshAfter = TimeUnit.MILLISECONDS.toNanos(Math.max(refreshAfter, 0));
+	}
+	
+	/**
+	 * cache the null loaded by get(k, loader) for the milliseconds (or until the key is put or removed), 0 to disable.
+	 * 
+	 * @param negativeTtl
+	 */
+	public void setNegativeTtl(long negativeTtl) {
+		this.negativeCache = negativeTtl > 0 ? CacheManager.<K, Boolean>getInstance(NEGATIVE_CAPACITY, negativeTtl, 0) : null;
+	}
+	
+	private static Executor getRefresher() {
+		Executor executor = refresher;
+		if(executor != null) {
+			return executor;
+		}
+		
+		refresherLock.lock();
+		try {
+			if(refresher == null) {
+				int threads = Runtime.getRuntime().availableProcessors();
+				ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(REFRESH_QUEUE_CAPACITY), new ThreadFactory() {
+					private final AtomicInteger threadIdx = new AtomicInteger();
+					
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "cache-refresher-" + threadIdx.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+				pool.allowCoreThreadTimeOut(true);
+				refresher = pool;
+			}
+			
+			return refresher;
+		} finally {
+			refresherLock.unlock();
+		}
+	}
+	
 	/*public static void main(String[] args) throws Exception {
 		CacheManager<String, Integer> cm = CacheManager.getInstance(10);
 		cm.put("a1", 1);
@@ -0,0 +1,168 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The registry of the named caches which record the statistics (CacheManager.enableStats(name)).
+ * 
+ * call enableJmx() to expose the statistics of each cache as MBean (com.mnt.base.util:type=Cache,name=&lt;name&gt;),
+ * the caches registered later are exposed as well.
+ *
+ */
+public class CacheRegistry {
+	
+	private static final Log log = LogFactory.getLog(CacheRegistry.class);
+	
+	private static final String JMX_DOMAIN = "com.mnt.base.util";
+	
+	private static final Map<String, CacheManager<?, ?>> caches = new ConcurrentHashMap<String, CacheManager<?, ?>>();
+	private static final AtomicBoolean jmxEnabled = new AtomicBoolean();
+	
+	private CacheRegistry() {
+	}
+	
+	static void register(String name, CacheManager<?, ?> cache) {
+		CacheManager<?, ?> prev = caches.put(name, cache);
+		
+		if(prev != null && prev != cache) {
+			log.warn("Replace the registered cache with the same name: " + name);
+		}
+		
+		if(jmxEnabled.get()) {
+			registerMBean(name, cache.getStats());
+		}
+	}
+	
+	/**
+	 * remove the cache from the registry and the MBean server.
+	 * 
+	 * @param name
+	 */
+	public static void unregister(String name) {
+		if(caches.remove(name) != null && jmxEnabled.get()) {
+			try {
+				ObjectName objectName = objectName(name);
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				
+				if(server.isRegistered(objectName)) {
+					server.unregisterMBean(objectName);
+				}
+			} catch (Exception e) {
+				log.warn("Error while unregistering the cache MBean: " + name, e);
+			}
+		}
+	}
+	
+	public static CacheManager<?, ?> getCache(String name) {
+		return caches.get(name);
+	}
+	
+	public static List<String> getCacheNames() {
+		List<String> names = new ArrayList<String>(caches.keySet());
+		Collections.sort(names);
+		return names;
+	}
+	
+	/**
+	 * the statistics snapshot of all the registered caches, ordered by name.
+	 * 
+	 * @return
+	 */
+	public static Map<String, CacheStats.Snapshot> snapshot() {
+		Map<String, CacheStats.Snapshot> snapshots = new LinkedHashMap<String, CacheStats.Snapshot>();
+		
+		CacheManager<?, ?> cache;
+		for(String name : getCacheNames()) {
+			cache = caches.get(name);
+			if(cache != null && cache.getStats() != null) {
+				snapshots.put(name, cache.getStats().snapshot());
+			}
+		}
+		
+		return snapshots;
+	}
+	
+	/**
+	 * register the MBeans to the platform MBean server.
+	 */
+	public static void enableJmx() {
+		if(!jmxEnabled.compareAndSet(false, true)) {
+			return;
+		}
+		
+		for(Map.Entry<String, CacheManager<?, ?>> entry : caches.entrySet()) {
+			registerMBean(entry.getKey(), entry.getValue().getStats());
+		}
+	}
+	
+	private static ObjectName objectName(String name) throws Exception {
+		return new ObjectName(JMX_DOMAIN + ":type=Cache,name=" + ObjectName.quote(name));
+	}
+	
+	private static void registerMBean(String name, CacheStats stats) {
+		if(stats == null) {
+			return;
+		}
+		
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = objectName(name);
+			
+			if(server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			
+			server.registerMBean(new StandardMBean(stats, CacheMBean.class), objectName);
+		} catch (Exception e) {
+			log.warn("Error while registering the cache MBean: " + name, e);
+		}
+	}
+	
+	public interface CacheMBean {
+		String getName();
+		int getSize();
+		long getHitCount();
+		long getMissCount();
+		double getHitRate();
+		long getLoadCount();
+		long getLoadFailureCount();
+		double getAverageLoadMillis();
+		long getEvictionCount();
+		long getExpirationCount();
+		void reset();
+	}
+}
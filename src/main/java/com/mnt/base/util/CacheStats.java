@@ -0,0 +1,234 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of one named CacheManager, enabled by CacheManager.enableStats(name).
+ * 
+ * the counters are LongAdders, so recording them does not contend between the threads.
+ * use snapshot() for a consistent view of the counters at one time.
+ *
+ */
+public class CacheStats implements CacheRegistry.CacheMBean {
+	
+	private final String name;
+	private final CacheManager<?, ?> cache;
+	
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+	final LongAdder loads = new LongAdder();
+	final LongAdder loadFailures = new LongAdder();
+	final LongAdder loadNanos = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+	final LongAdder expirations = new LongAdder();
+	
+	CacheStats(String name, CacheManager<?, ?> cache) {
+		this.name = name;
+		this.cache = cache;
+	}
+	
+	void recordGet(boolean hit) {
+		if(hit) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+	}
+	
+	void recordLoad(long nanos, boolean succeeded) {
+		loads.increment();
+		loadNanos.add(nanos);
+		
+		if(!succeeded) {
+			loadFailures.increment();
+		}
+	}
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * the entries in the cache, may include the expired entries not reclaimed yet.
+	 */
+	@Override
+	public int getSize() {
+		return cache.keySets().size();
+	}
+
+	@Override
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	@Override
+	public double getHitRate() {
+		long hitCount = hits.sum();
+		long requests = hitCount + misses.sum();
+		return requests == 0 ? 1 : (double) hitCount / requests;
+	}
+
+	@Override
+	public long getLoadCount() {
+		return loads.sum();
+	}
+
+	@Override
+	public long getLoadFailureCount() {
+		return loadFailures.sum();
+	}
+
+	@Override
+	public double getAverageLoadMillis() {
+		long loadCount = loads.sum();
+		return loadCount == 0 ? 0 : (double) loadNanos.sum() / loadCount / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	@Override
+	public long getExpirationCount() {
+		return expirations.sum();
+	}
+	
+	@Override
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		loads.reset();
+		loadFailures.reset();
+		loadNanos.reset();
+		evictions.reset();
+		expirations.reset();
+	}
+	
+	public Snapshot snapshot() {
+		return new Snapshot(name, getSize(), hits.sum(), misses.sum(), loads.sum(), loadFailures.sum(), 
+				loadNanos.sum(), evictions.sum(), expirations.sum());
+	}
+	
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+	
+	/**
+	 * the immutable statistics at one time.
+	 */
+	public static class Snapshot {
+		private final String name;
+		private final int size;
+		private final long hitCount;
+		private final long missCount;
+		private final long loadCount;
+		private final long loadFailureCount;
+		private final long totalLoadNanos;
+		private final long evictionCount;
+		private final long expirationCount;
+		
+		Snapshot(String name, int size, long hitCount, long missCount, long loadCount, long loadFailureCount, 
+				long totalLoadNanos, long evictionCount, long expirationCount) {
+			this.name = name;
+			this.size = size;
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+			this.loadCount = loadCount;
+			this.loadFailureCount = loadFailureCount;
+			this.totalLoadNanos = totalLoadNanos;
+			this.evictionCount = evictionCount;
+			this.expirationCount = expirationCount;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public long getHitCount() {
+			return hitCount;
+		}
+
+		public long getMissCount() {
+			return missCount;
+		}
+		
+		public long getRequestCount() {
+			return hitCount + missCount;
+		}
+		
+		/**
+		 * hits / requests, 1 if no request yet.
+		 * 
+		 * @return
+		 */
+		public double getHitRate() {
+			long requests = getRequestCount();
+			return requests == 0 ? 1 : (double) hitCount / requests;
+		}
+
+		public long getLoadCount() {
+			return loadCount;
+		}
+
+		public long getLoadFailureCount() {
+			return loadFailureCount;
+		}
+
+		public long getTotalLoadNanos() {
+			return totalLoadNanos;
+		}
+		
+		public double getAverageLoadMillis() {
+			return loadCount == 0 ? 0 : (double) totalLoadNanos / loadCount / TimeUnit.MILLISECONDS.toNanos(1);
+		}
+
+		public long getEvictionCount() {
+			return evictionCount;
+		}
+
+		public long getExpirationCount() {
+			return expirationCount;
+		}
+
+		@Override
+		public String toString() {
+			return "CacheStats [name=" + name + ", size=" + size + ", hitCount=" + hitCount + ", missCount=" + missCount 
+					+ ", hitRate=" + getHitRate() + ", loadCount=" + loadCount + ", loadFailureCount=" + loadFailureCount 
+					+ ", averageLoadMillis=" + getAverageLoadMillis() + ", evictionCount=" + evictionCount 
+					+ ", expirationCount=" + expirationCount + "]";
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.util;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The cache keyed by the primitive int, created by CacheManager.getIntKeyInstance(...).
+ * 
+ * shares the open addressing storage of LongCacheManager (the key is widened to long), get(int)/put(int, v)/remove(int)
+ * never box the key. the null value is not allowed, the bounded cache evicts by CLOCK (approximate LRU) and the entry 
+ * never expires.
+ * 
+ */
+public class IntCacheManager<V> extends CacheManager<Integer, V> {
+	
+	private final LongKeyTable<V> table;
+	
+	IntCacheManager(int capacity) {
+		this.table = new LongKeyTable<V>(capacity, this);
+	}
+	
+	public V get(int k) {
+		return recordGet(table.get(k));
+	}
+	
+	public V put(int k, V v) {
+		if(hasNegativeCache()) {
+			clearNegative(k);
+		}
+		
+		return table.put(k, v);
+	}
+	
+	public V remove(int k) {
+		if(hasNegativeCache()) {
+			clearNegative(k);
+		}
+		
+		return table.remove(k);
+	}
+	
+	public boolean containsKey(int k) {
+		return table.get(k) != null;
+	}
+	
+	/**
+	 * the snapshot of the keys.
+	 * 
+	 * @return
+	 */
+	public int[] keys() {
+		long[] ks = table.keys();
+		int[] result = new int[ks.length];
+		
+		for(int i = 0; i < ks.length; i++) {
+			result[i] = (int) ks[i];
+		}
+		
+		return result;
+	}
+	
+	public int size() {
+		return table.size();
+	}
+
+	@Override
+	public V get(Integer k) {
+		return get(k.intValue());
+	}
+	
+	@Override
+	V peek(Integer k) {
+		return table.get(k);
+	}
+
+	@Override
+	public V put(Integer k, V v) {
+		return put(k.intValue(), v);
+	}
+
+	@Override
+	public V remove(Integer k) {
+		return remove(k.intValue());
+	}
+
+	@Override
+	public void clear() {
+		clearNegatives();
+		table.clear();
+	}
+
+	@Override
+	public boolean containsKey(Object k) {
+		return k instanceof Integer && table.get((Integer) k) != null;
+	}
+
+	/**
+	 * the snapshot of the values.
+	 */
+	@Override
+	public Collection<V> values() {
+		return table.values();
+	}
+
+	/**
+	 * the snapshot of the keys, prefer keys() to avoid the boxing.
+	 */
+	@Override
+	public Set<Integer> keySets() {
+		int[] ks = keys();
+		Set<Integer> result = new HashSet<Integer>(ks.length * 4 / 3 + 1);
+		for(int k : ks) {
+			result.add(k);
+		}
+		
+		return result;
+	}
+}
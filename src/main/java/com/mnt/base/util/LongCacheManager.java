@@ -0,0 +1,125 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.util;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * The cache keyed by the primitive long (e.g. the user/account id), created by CacheManager.getLongKeyInstance(...).
+ * 
+ * the entries are kept in the open addressing arrays, get(long)/put(long, v)/remove(long) never box the key and no map
+ * node is allocated per entry. the Long key methods of CacheManager are still supported, the key is unboxed.
+ * the null value is not allowed, the bounded cache evicts by CLOCK (approximate LRU) and the entry never expires.
+ * 
+ */
+public class LongCacheManager<V> extends CacheManager<Long, V> {
+	
+	private final LongKeyTable<V> table;
+	
+	LongCacheManager(int capacity) {
+		this.table = new LongKeyTable<V>(capacity, this);
+	}
+	
+	public V get(long k) {
+		return recordGet(table.get(k));
+	}
+	
+	public V put(long k, V v) {
+		if(hasNegativeCache()) {
+			clearNegative(k);
+		}
+		
+		return table.put(k, v);
+	}
+	
+	public V remove(long k) {
+		if(hasNegativeCache()) {
+			clearNegative(k);
+		}
+		
+		return table.remove(k);
+	}
+	
+	public boolean containsKey(long k) {
+		return table.get(k) != null;
+	}
+	
+	/**
+	 * the snapshot of the keys.
+	 * 
+	 * @return
+	 */
+	public long[] keys() {
+		return table.keys();
+	}
+	
+	public int size() {
+		return table.size();
+	}
+
+	@Override
+	public V get(Long k) {
+		return get(k.longValue());
+	}
+	
+	@Override
+	V peek(Long k) {
+		return table.get(k);
+	}
+
+	@Override
+	public V put(Long k, V v) {
+		return put(k.longValue(), v);
+	}
+
+	@Override
+	public V remove(Long k) {
+		return remove(k.longValue());
+	}
+
+	@Override
+	public void clear() {
+		clearNegatives();
+		table.clear();
+	}
+
+	@Override
+	public boolean containsKey(Object k) {
+		return k instanceof Long && table.get((Long) k) != null;
+	}
+
+	/**
+	 * the snapshot of the values.
+	 */
+	@Override
+	public Collection<V> values() {
+		return table.values();
+	}
+
+	/**
+	 * the snapshot of the keys, prefer keys() to avoid the boxing.
+	 */
+	@Override
+	public Set<Long> keySets() {
+		return table.keySet();
+	}
+}
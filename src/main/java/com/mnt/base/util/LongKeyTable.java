@@ -0,0 +1,440 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Concurrent open addressing table keyed by the primitive long, the storage of LongCacheManager and IntCacheManager.
+ * 
+ * the keys are striped into segments, each segment keeps the keys and values in two parallel arrays with linear probing,
+ * so there is neither the key boxing nor the map node per entry. the writes take the segment write lock, the reads are
+ * lock free: they probe under the optimistic stamp of the segment and retry with the read lock if a write interleaved.
+ * 
+ * the bounded table evicts by CLOCK (second chance): the read marks the entry referenced, the eviction hand skips and
+ * clears the referenced entries and evicts the first unreferenced one. the removal shifts the following entries back,
+ * so no tombstone is left.
+ *
+ */
+class LongKeyTable<V> {
+	
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+	private static final int MIN_SEGMENT_CAPACITY = 16;
+	
+	private final CacheManager<?, V> owner;
+	private final Segment[] segments;
+	private final int segmentShift;
+	
+	/**
+	 * 
+	 * @param capacity the max entries, 0 for unbounded
+	 * @param owner the cache recording the evictions
+	 */
+	LongKeyTable(int capacity, CacheManager<?, V> owner) {
+		this.owner = owner;
+		
+		int bound = capacity > 0 ? capacity : Integer.MAX_VALUE;
+		int maxSegments = Runtime.getRuntime().availableProcessors() * 2;
+		int segmentBits = 0;
+		while((1 << segmentBits) < maxSegments && bound / ((1 << segmentBits) * 2) >= MIN_SEGMENT_CAPACITY) {
+			segmentBits++;
+		}
+		
+		int segmentCount = 1 << segmentBits;
+		int segmentCapacity = capacity > 0 ? (capacity + segmentCount - 1) / segmentCount : 0;
+		
+		this.segmentShift = 64 - segmentBits;
+		this.segments = new Segment[segmentCount];
+		
+		for(int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+	
+	private static long hash(long key) {
+		return key * GOLDEN;
+	}
+	
+	private Segment segmentFor(long h) {
+		// the high bits select the segment, the low bits select the slot
+		return segments.length == 1 ? segments[0] : segments[(int) (h >>> segmentShift)];
+	}
+	
+	private static int slot(long h, int mask) {
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+	
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		long h = hash(key);
+		Segment segment = segmentFor(h);
+		
+		long stamp = segment.lock.tryOptimisticRead();
+		if(stamp != 0) {
+			Object v = segment.find(key, h, false);
+			
+			if(segment.lock.validate(stamp)) {
+				return (V) v;
+			}
+		}
+		
+		stamp = segment.lock.readLock();
+		try {
+			return (V) segment.find(key, h, true);
+		} finally {
+			segment.lock.unlockRead(stamp);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	V put(long key, V value) {
+		if(value == null) {
+			throw new NullPointerException("The cache value can not be null.");
+		}
+		
+		long h = hash(key);
+		Segment segment = segmentFor(h);
+		
+		long stamp = segment.lock.writeLock();
+		try {
+			int evicted = segment.size;
+			V prev = (V) segment.put(key, h, value);
+			evicted = evicted + (prev == null ? 1 : 0) - segment.size;
+			
+			for(int i = 0; i < evicted; i++) {
+				owner.recordEviction();
+			}
+			
+			return prev;
+		} finally {
+			segment.lock.unlockWrite(stamp);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	V remove(long key) {
+		long h = hash(key);
+		Segment segment = segmentFor(h);
+		
+		long stamp = segment.lock.writeLock();
+		try {
+			return (V) segment.remove(key, h);
+		} finally {
+			segment.lock.unlockWrite(stamp);
+		}
+	}
+	
+	void clear() {
+		for(Segment segment : segments) {
+			long stamp = segment.lock.writeLock();
+			try {
+				segment.clear();
+			} finally {
+				segment.lock.unlockWrite(stamp);
+			}
+		}
+	}
+	
+	int size() {
+		int size = 0;
+		for(Segment segment : segments) {
+			size += segment.size;
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * the snapshot of the keys.
+	 * 
+	 * @return
+	 */
+	long[] keys() {
+		long[] result = new long[0];
+		int n = 0;
+		
+		for(Segment segment : segments) {
+			long stamp = segment.lock.readLock();
+			try {
+				if(result.length < n + segment.size) {
+					result = Arrays.copyOf(result, n + segment.size + (n + segment.size) / 2);
+				}
+				
+				Object[] values = segment.values;
+				for(int i = 0; i < values.length; i++) {
+					if(values[i] != null) {
+						result[n++] = segment.keys[i];
+					}
+				}
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
+		
+		return result.length == n ? result : Arrays.copyOf(result, n);
+	}
+	
+	/**
+	 * the snapshot of the values.
+	 * 
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	List<V> values() {
+		List<V> result = new ArrayList<V>();
+		
+		for(Segment segment : segments) {
+			long stamp = segment.lock.readLock();
+			try {
+				for(Object v : segment.values) {
+					if(v != null) {
+						result.add((V) v);
+					}
+				}
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
+		
+		return result;
+	}
+	
+	Set<Long> keySet() {
+		long[] ks = keys();
+		Set<Long> result = new HashSet<Long>(ks.length * 4 / 3 + 1);
+		for(long k : ks) {
+			result.add(k);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * one open addressing table, the empty slot is the one with null value.
+	 */
+	private static class Segment {
+		final StampedLock lock = new StampedLock();
+		final int capacity;
+		
+		// replaced as a whole while resizing, guarded by the lock
+		long[] keys;
+		Object[] values;
+		byte[] referenced;
+		int size;
+		int hand;
+		
+		Segment(int capacity) {
+			this.capacity = capacity;
+			
+			// keep the load factor under 0.75 for the bounded segment, so it never resizes
+			int len = Integer.highestOneBit(Math.max(MIN_SEGMENT_CAPACITY, capacity > 0 ? capacity * 4 / 3 + 1 : MIN_SEGMENT_CAPACITY) - 1) << 1;
+			allocate(len);
+		}
+		
+		private void allocate(int len) {
+			keys = new long[len];
+			values = new Object[len];
+			referenced = new byte[len];
+		}
+		
+		/**
+		 * 
+		 * @param key
+		 * @param h
+		 * @param locked false while probing under the optimistic stamp, the arrays may be modified meanwhile
+		 * @return
+		 */
+		Object find(long key, long h, boolean locked) {
+			long[] ks = keys;
+			Object[] vs = values;
+			byte[] refs = referenced;
+			
+			// the racy read may see the arrays of different generations
+			if(ks.length != vs.length || vs.length != refs.length) {
+				return null;
+			}
+			
+			int mask = vs.length - 1;
+			int idx = slot(h, mask);
+			
+			Object v;
+			for(int i = 0; i <= mask; i++) {
+				v = vs[idx];
+				
+				if(v == null) {
+					return null;
+				}
+				
+				if(ks[idx] == key) {
+					if(refs[idx] == 0) {
+						// racy mark, a lost one only makes the entry evicted earlier
+						refs[idx] = 1;
+					}
+					
+					return v;
+				}
+				
+				idx = (idx + 1) & mask;
+			}
+			
+			return null;
+		}
+		
+		Object put(long key, long h, Object value) {
+			int mask = values.length - 1;
+			int idx = slot(h, mask);
+			
+			while(values[idx] != null) {
+				if(keys[idx] == key) {
+					Object prev = values[idx];
+					values[idx] = value;
+					referenced[idx] = 1;
+					return prev;
+				}
+				
+				idx = (idx + 1) & mask;
+			}
+			
+			if(capacity > 0 && size >= capacity) {
+				evict();
+				// the slots may be shifted by the eviction
+				return put(key, h, value);
+			}
+			
+			keys[idx] = key;
+			values[idx] = value;
+			referenced[idx] = 0;
+			size++;
+			
+			if(capacity <= 0 && size > values.length * 3 / 4) {
+				resize();
+			}
+			
+			return null;
+		}
+		
+		Object remove(long key, long h) {
+			int mask = values.length - 1;
+			int idx = slot(h, mask);
+			
+			while(values[idx] != null) {
+				if(keys[idx] == key) {
+					Object prev = values[idx];
+					delete(idx);
+					return prev;
+				}
+				
+				idx = (idx + 1) & mask;
+			}
+			
+			return null;
+		}
+		
+		/**
+		 * CLOCK eviction, every entry gets one more pass if it is referenced since the last pass.
+		 */
+		private void evict() {
+			int mask = values.length - 1;
+			
+			while(true) {
+				if(values[hand] != null) {
+					if(referenced[hand] != 0) {
+						referenced[hand] = 0;
+					} else {
+						// the following entry may be shifted into the hand, check it in the next round
+						delete(hand);
+						return;
+					}
+				}
+				
+				hand = (hand + 1) & mask;
+			}
+		}
+		
+		/**
+		 * remove the entry and shift the following entries of the probe chain back.
+		 */
+		private void delete(int idx) {
+			int mask = values.length - 1;
+			int hole = idx;
+			int j = idx;
+			int home;
+			
+			while(true) {
+				j = (j + 1) & mask;
+				
+				if(values[j] == null) {
+					break;
+				}
+				
+				home = slot(hash(keys[j]), mask);
+				
+				// move the entry if its home is not in the cyclic range (hole, j]
+				if(hole <= j ? (home <= hole || home > j) : (home <= hole && home > j)) {
+					keys[hole] = keys[j];
+					values[hole] = values[j];
+					referenced[hole] = referenced[j];
+					hole = j;
+				}
+			}
+			
+			values[hole] = null;
+			referenced[hole] = 0;
+			size--;
+		}
+		
+		private void resize() {
+			long[] ks = keys;
+			Object[] vs = values;
+			byte[] refs = referenced;
+			
+			allocate(vs.length << 1);
+			int mask = values.length - 1;
+			
+			int idx;
+			for(int i = 0; i < vs.length; i++) {
+				if(vs[i] != null) {
+					idx = slot(hash(ks[i]), mask);
+					while(values[idx] != null) {
+						idx = (idx + 1) & mask;
+					}
+					
+					keys[idx] = ks[i];
+					values[idx] = vs[i];
+					referenced[idx] = refs[i];
+				}
+			}
+			
+			hand = 0;
+		}
+		
+		void clear() {
+			allocate(values.length);
+			size = 0;
+			hand = 0;
+		}
+	}
+}
@@ -0,0 +1,367 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidParameterException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+import com.mnt.base.util.filequeue.Serializier;
+
+/**
+ * Off heap cache, the values are kept as the serialized bytes in the direct (or memory mapped) slabs,
+ * only the keys and the value locations stay on heap, so the large cache does not inflate the GC pause.
+ * 
+ * the slabs are written as a log: the record (length + bytes) is appended to the current slab, once it is full 
+ * the eldest slab is recycled and its entries dropped. the entry read from the slab which is recycled next is 
+ * appended again (second chance), so the frequently read entries survive the recycling.
+ * 
+ * the writes are serialized by one lock, the reads never lock: the reader copies the bytes and validates 
+ * the slab is not recycled meanwhile.
+ * 
+ * the value larger than the slab is not cached. put(...) and remove(...) do not return the previous value.
+ *
+ */
+class OffHeapCacherManager<K, V> extends CacheManager<K, V> {
+	
+	private static final int HEADER_SIZE = 4;
+	private static final int MIN_SLAB_SIZE = 1 << 16;
+	private static final int MAX_SLAB_SIZE = 1 << 28;
+	
+	// location: generation (24 bits) | slab (9 bits) | offset (31 bits)
+	private static final int MAX_SLABS = 1 << 9;
+	private static final int GENERATION_MASK = (1 << 24) - 1;
+	
+	private final Serializier<V> serializier;
+	private final Map<K, Long> index = new ConcurrentHashMap<K, Long>();
+	private final Slab<K>[] slabs;
+	private final int slabSize;
+	
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private volatile int current;
+	
+	/**
+	 * 
+	 * @param maxBytes the total bytes of the slabs
+	 * @param serializier
+	 * @param dir the directory of the memory mapped slab files, null for the direct buffers
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	OffHeapCacherManager(long maxBytes, Serializier<V> serializier, File dir) throws IOException {
+		if(serializier == null) {
+			throw new InvalidParameterException("The serializier is required.");
+		}
+		
+		this.serializier = serializier;
+		this.slabSize = (int) Math.min(MAX_SLAB_SIZE, Math.max(MIN_SLAB_SIZE, maxBytes / 8));
+		
+		long slabCount = Math.max(2, (maxBytes + slabSize - 1) / slabSize);
+		if(slabCount > MAX_SLABS) {
+			throw new InvalidParameterException("The off heap cache size can not be over " + ((long) MAX_SLABS * MAX_SLAB_SIZE) + " bytes.");
+		}
+		
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Slab<K>[] slabs = new Slab[(int) slabCount];
+		this.slabs = slabs;
+		
+		for(int i = 0; i < slabs.length; i++) {
+			slabs[i] = new Slab<K>(i, dir == null ? ByteBuffer.allocateDirect(slabSize) : map(dir, slabSize));
+		}
+	}
+	
+	private static ByteBuffer map(File dir, int size) throws IOException {
+		if(!dir.exists()) {
+			dir.mkdirs();
+		}
+		
+		// the slab files are scratch space, the index is not persisted
+		File file = File.createTempFile("cache-slab-", ".dat", dir);
+		file.deleteOnExit();
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			// the mapping stays valid after the channel closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	private static long location(int generation, int slabIdx, int offset) {
+		return ((long) generation << 40) | ((long) slabIdx << 31) | offset;
+	}
+	
+	private static int generationOf(long location) {
+		return (int) (location >>> 40);
+	}
+	
+	private static int slabOf(long location) {
+		return (int) (location >>> 31) & (MAX_SLABS - 1);
+	}
+	
+	private static int offsetOf(long location) {
+		return (int) location & Integer.MAX_VALUE;
+	}
+	
+	@Override
+	public V get(K k) {
+		return recordGet(peek(k));
+	}
+	
+	@Override
+	V peek(K k) {
+		Long location = index.get(k);
+		
+		if(location == null) {
+			return null;
+		}
+		
+		Slab<K> slab = slabs[slabOf(location)];
+		byte[] bs = read(slab, location);
+		
+		if(bs == null) {
+			// the slab is recycled
+			return null;
+		}
+		
+		if(slab.idx == (current + 1) % slabs.length && writeLock.tryLock()) {
+			try {
+				if(location.equals(index.get(k))) {
+					index.put(k, append(k, bs));
+				}
+			} finally {
+				writeLock.unlock();
+			}
+		}
+		
+		return serializier.deserialize(bs);
+	}
+	
+	private byte[] read(Slab<K> slab, long location) {
+		long stamp = slab.lock.tryOptimisticRead();
+		
+		if(stamp == 0 || slab.generation != generationOf(location)) {
+			return null;
+		}
+		
+		ByteBuffer buffer = slab.buffer.duplicate();
+		int offset = offsetOf(location);
+		int len = buffer.getInt(offset);
+		
+		// the length may be garbage if the slab is recycled meanwhile
+		if(len < 0 || (long) offset + HEADER_SIZE + len > slabSize) {
+			return null;
+		}
+		
+		byte[] bs = new byte[len];
+		buffer.position(offset + HEADER_SIZE);
+		buffer.get(bs);
+		
+		return slab.lock.validate(stamp) ? bs : null;
+	}
+
+	@Override
+	public V put(K k, V v) {
+		byte[] bs = v == null ? null : serializier.serialize(v);
+		
+		if(bs == null) {
+			throw new NullPointerException("The cache value can not be null.");
+		}
+		
+		clearNegative(k);
+		
+		writeLock.lock();
+		try {
+			if(HEADER_SIZE + bs.length > slabSize) {
+				index.remove(k);
+			} else {
+				index.put(k, append(k, bs));
+			}
+		} finally {
+			writeLock.unlock();
+		}
+		
+		return null;
+	}
+	
+	// invoked with the write lock held
+	private long append(K k, byte[] bs) {
+		int recordSize = HEADER_SIZE + bs.length;
+		Slab<K> slab = slabs[current];
+		
+		if(slab.writeOffset + recordSize > slabSize) {
+			current = (current + 1) % slabs.length;
+			slab = slabs[current];
+			recycle(slab);
+		}
+		
+		int offset = slab.writeOffset;
+		slab.buffer.putInt(offset, bs.length);
+		slab.buffer.position(offset + HEADER_SIZE);
+		slab.buffer.put(bs);
+		
+		slab.writeOffset = offset + recordSize;
+		slab.keys.add(k);
+		
+		return location(slab.generation, slab.idx, offset);
+	}
+	
+	// invoked with the write lock held
+	private void recycle(Slab<K> slab) {
+		long stamp = slab.lock.writeLock();
+		try {
+			slab.generation = (slab.generation + 1) & GENERATION_MASK;
+			slab.writeOffset = 0;
+		} finally {
+			slab.lock.unlockWrite(stamp);
+		}
+		
+		Long location;
+		for(K k : slab.keys) {
+			location = index.get(k);
+			
+			// skip the keys written to the other slabs later
+			if(location != null && slabOf(location) == slab.idx && generationOf(location) != slab.generation && index.remove(k, location)) {
+				recordEviction();
+			}
+		}
+		
+		slab.keys.clear();
+	}
+	
+	@Override
+	public V remove(K k) {
+		clearNegative(k);
+		index.remove(k);
+		return null;
+	}
+
+	@Override
+	public void clear() {
+		clearNegatives();
+		
+		writeLock.lock();
+		try {
+			// not counted as the evictions
+			index.clear();
+			
+			for(Slab<K> slab : slabs) {
+				recycle(slab);
+			}
+			current = 0;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object k) {
+		return index.containsKey(k);
+	}
+
+	/**
+	 * the read only view, the values are deserialized while iterating.
+	 */
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				final Iterator<K> it = index.keySet().iterator();
+				
+				return new Iterator<V>() {
+					V next = advance();
+					
+					private V advance() {
+						V v;
+						while(it.hasNext()) {
+							v = peek(it.next());
+							if(v != null) {
+								return v;
+							}
+						}
+						
+						return null;
+					}
+					
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					public V next() {
+						if(next == null) {
+							throw new NoSuchElementException();
+						}
+						
+						V v = next;
+						next = advance();
+						return v;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return index.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<K> keySets() {
+		return Collections.unmodifiableSet(index.keySet());
+	}
+	
+	private static class Slab<K> {
+		final int idx;
+		// the position is only used by the writer, the readers read from the duplicates
+		final ByteBuffer buffer;
+		final StampedLock lock = new StampedLock();
+		volatile int generation;
+		
+		// guarded by the write lock
+		int writeOffset;
+		final List<K> keys = new ArrayList<K>();
+		
+		Slab(int idx, ByteBuffer buffer) {
+			this.idx = idx;
+			this.buffer = buffer;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * $Revision: 1.0
+ * $Date: 2013-5-21
+ *
+ * Copyright (C) 2013-2020 MNT. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.mnt.base.util;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timer wheel used to expire the cache entries in O(1) amortized time.
+ * 
+ * the timers are hashed into 5 levels of 64 buckets by their deadline, the tick of each level is 2^20ns (~1ms), 
+ * 2^26ns (~67ms), 2^32ns (~4.3s), 2^38ns (~4.6m) and 2^44ns (~4.9h). advancing the wheel only visits the buckets 
+ * whose tick passed, the timers not due yet cascade to the lower levels, the ones due are passed to the expirer.
+ * 
+ * the deadline of the timer may be extended after scheduling, the expirer is expected to check the real deadline
+ * and reschedule the timer if it is not due yet.
+ * 
+ * not thread safe, the owner guards it with its own lock.
+ *
+ */
+class TimerWheel {
+	
+	private static final int BUCKETS = 64;
+	private static final int[] SHIFTS = {20, 26, 32, 38, 44};
+	
+	private final Timer[][] wheel;
+	private long nanos;
+	
+	TimerWheel(long nanos) {
+		this.nanos = nanos;
+		this.wheel = new Timer[SHIFTS.length][BUCKETS];
+		
+		for(int i = 0; i < SHIFTS.length; i++) {
+			for(int j = 0; j < BUCKETS; j++) {
+				Timer sentinel = new Timer();
+				sentinel.wheelPrev = sentinel;
+				sentinel.wheelNext = sentinel;
+				wheel[i][j] = sentinel;
+			}
+		}
+	}
+	
+	/**
+	 * schedule the timer by its deadline, or move it if it is scheduled already.
+	 * 
+	 * @param timer
+	 */
+	void schedule(Timer timer) {
+		if(timer.wheelNext != null) {
+			unlink(timer);
+		}
+		
+		Timer sentinel = findBucket(timer.deadline);
+		
+		timer.wheelNext = sentinel;
+		timer.wheelPrev = sentinel.wheelPrev;
+		sentinel.wheelPrev.wheelNext = timer;
+		sentinel.wheelPrev = timer;
+	}
+	
+	void deschedule(Timer timer) {
+		if(timer.wheelNext != null) {
+			unlink(timer);
+		}
+	}
+	
+	/**
+	 * advance the wheel to the time.
+	 * 
+	 * @param now System.nanoTime()
+	 * @param expirer receive the timers whose scheduled deadline passed
+	 */
+	void advance(long now, Consumer<Timer> expirer) {
+		long prev = nanos;
+		if(now - prev <= 0) {
+			return;
+		}
+		
+		nanos = now;
+		
+		long prevTicks, currentTicks;
+		for(int i = 0; i < SHIFTS.length; i++) {
+			prevTicks = prev >>> SHIFTS[i];
+			currentTicks = now >>> SHIFTS[i];
+			
+			if(currentTicks - prevTicks <= 0) {
+				break;
+			}
+			
+			expire(i, prevTicks, currentTicks - prevTicks, expirer);
+		}
+	}
+	
+	private void expire(int level, long prevTicks, long delta, Consumer<Timer> expirer) {
+		Timer[] buckets = wheel[level];
+		
+		int start, end;
+		if(delta >= BUCKETS) {
+			start = 0;
+			end = BUCKETS;
+		} else {
+			start = (int) (prevTicks & (BUCKETS - 1));
+			end = start + (int) delta + 1;
+		}
+		
+		Timer sentinel, timer, next;
+		for(int i = start; i < end; i++) {
+			sentinel = buckets[i & (BUCKETS - 1)];
+			
+			// detach the bucket, the timers rescheduled into it are handled in the later rounds
+			timer = sentinel.wheelNext;
+			sentinel.wheelPrev = sentinel;
+			sentinel.wheelNext = sentinel;
+			
+			while(timer != sentinel) {
+				next = timer.wheelNext;
+				timer.wheelPrev = null;
+				timer.wheelNext = null;
+				
+				if(timer.deadline - nanos <= 0) {
+					expirer.accept(timer);
+				} else {
+					schedule(timer);
+				}
+				
+				timer = next;
+			}
+		}
+	}
+	
+	private Timer findBucket(long deadline) {
+		long duration = deadline - nanos;
+		
+		int level = SHIFTS.length - 1;
+		for(int i = 0; i < SHIFTS.length - 1; i++) {
+			// the span of the level is the tick of the next level
+			if(duration < 1L << SHIFTS[i + 1]) {
+				level = i;
+				break;
+			}
+		}
+		
+		// the deadline beyond the top level span wraps around, it is rescheduled while the bucket expires
+		return wheel[level][(int) ((deadline >>> SHIFTS[level]) & (BUCKETS - 1))];
+	}
+	
+	private void unlink(Timer timer) {
+		timer.wheelPrev.wheelNext = timer.wheelNext;
+		timer.wheelNext.wheelPrev = timer.wheelPrev;
+		timer.wheelPrev = null;
+		timer.wheelNext = null;
+	}
+	
+	/**
+	 * the entry scheduled in the wheel, the links are null while it is not scheduled.
+	 */
+	static class Timer {
+		long deadline;
+		Timer wheelPrev;
+		Timer wheelNext;
+	}
+}